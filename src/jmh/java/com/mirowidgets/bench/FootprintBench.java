@@ -0,0 +1,125 @@
+package com.mirowidgets.bench;
+
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures what a board costs on the heap. Each fork loads a board into a store it has just
+ * created, measures the heap it retains after a full GC and prints it per widget, next to the
+ * store's own estimate, once the trial ends. Each invocation loads the board again, so with the GC
+ * profiler gc.alloc.rate.norm divided by the number of widgets shows the garbage made building one.
+ * The store is emptied before each invocation, so the previous board is not retained while the
+ * next one is built.
+ *
+ * <p>The largest boards need a heap of several gigabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FootprintBench {
+
+  private static final int GRID = 20;
+
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int widgets;
+
+  @Param({"false", "true"})
+  private boolean interned;
+
+  private WidgetStore widgetStore;
+  private long measuredBytes;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    long before = usedHeap();
+    widgetStore = interned ? WidgetStores.internedInMemoryStore() : WidgetStores.inMemoryStore();
+    widgetStore.load(board(widgets));
+    measuredBytes = usedHeap() - before;
+  }
+
+  @Setup(Level.Invocation)
+  public void emptyStore() {
+    // a load replaces the board and its history, unlike clear(), which can be undone
+    widgetStore.load(Stream.empty());
+  }
+
+  @TearDown(Level.Trial)
+  public void report() {
+    System.out.printf(
+        "%n%d widgets, interned %b: measured %.1f bytes per widget, estimated %.1f%n",
+        widgets,
+        interned,
+        (double) measuredBytes / widgets,
+        (double) widgetStore.estimatedRetainedSize() / widgets);
+  }
+
+  @Benchmark
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 5)
+  public WidgetStore loadBoard() {
+    widgetStore.load(board(widgets));
+    return widgetStore;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt =
+        new OptionsBuilder()
+            .include(FootprintBench.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+    new Runner(opt).run();
+  }
+
+  /** Widgets on a grid, in four sizes, as a board of sticky notes would be */
+  private static Stream<Widget> board(int widgets) {
+    return IntStream.range(0, widgets)
+        .mapToObj(
+            i -> {
+              int size = GRID * (1 + i % 4);
+              return Widget.builder()
+                  .setCoordinates(
+                      Coordinates.builder()
+                          .setX((i % 1000) * GRID)
+                          .setY((i / 1000) * GRID)
+                          .build())
+                  .setDimensions(Dimensions.builder().setWidth(size).setHeight(size).build())
+                  .setZIndex(i)
+                  .build();
+            });
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,104 @@
+package com.mirowidgets.bench;
+
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Geometry;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drags widgets between grid-snapped positions, with and without {@link Geometry} interning. Run
+ * with the GC profiler, gc.alloc.rate.norm shows the bytes allocated per update.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class GeometryBench {
+
+  private static final int WIDGETS = 10_000;
+  private static final int GRID = 20;
+
+  @Benchmark
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 10)
+  @Threads(2)
+  public void dragWidgets(Blackhole blackhole, StateHolder stateHolder, Cursor cursor) {
+    int step = cursor.step++;
+    String id = stateHolder.ids.get(Math.floorMod(step * 7919, stateHolder.ids.size()));
+    int x = Math.floorMod(step, 100) * GRID;
+    int y = Math.floorMod(step / 100, 100) * GRID;
+    Coordinates coordinates =
+        stateHolder.interned
+            ? Geometry.coordinates(x, y)
+            : Coordinates.builder().setX(x).setY(y).build();
+
+    Optional<Widget> widget = stateHolder.widgetStore.update(coordinates, id);
+
+    blackhole.consume(widget);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt =
+        new OptionsBuilder()
+            .include(GeometryBench.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+    new Runner(opt).run();
+  }
+
+  @State(value = Scope.Thread)
+  public static class Cursor {
+    private int step;
+  }
+
+  @State(value = Scope.Benchmark)
+  public static class StateHolder {
+
+    @Param({"false", "true"})
+    private boolean interned;
+
+    private WidgetStore widgetStore;
+    private List<String> ids;
+
+    @Setup
+    public void setUp() {
+      widgetStore = interned ? WidgetStores.internedInMemoryStore() : WidgetStores.inMemoryStore();
+      widgetStore.clear();
+      for (int i = 0; i < WIDGETS; i++) {
+        int x = (i % 100) * GRID;
+        int y = (i / 100) * GRID;
+        int size = GRID * (1 + i % 4);
+        widgetStore.create(
+            interned ? Geometry.coordinates(x, y) : Coordinates.builder().setX(x).setY(y).build(),
+            interned
+                ? Geometry.dimensions(size, size)
+                : Dimensions.builder().setWidth(size).setHeight(size).build(),
+            i);
+      }
+      ids = widgetStore.list().stream().map(Widget::getId).collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package org.mirowidgets.model;
+
+import org.immutables.value.Value;
+import org.mirowidgets.value.Immutables;
+
+@Value.Immutable
+@Immutables.DefaultStyle
+interface ChangeModel {
+  /** the store's version once the change is applied, one more than the version it applies to */
+  long getVersion();
+
+  /** whether the change replaces the whole board with the added widgets, as loading one does */
+  @Value.Default
+  default boolean isReset() {
+    return false;
+  }
+
+  /** the widgets the change replaced and those it replaced them with */
+  Mutation getMutation();
+}
@@ -0,0 +1,98 @@
+package org.mirowidgets.model;
+
+/**
+ * Shares {@link Coordinates} and {@link Dimensions} instances between widgets. Boards repeat the
+ * same few sizes and grid-snapped positions, so handing out a cached instance saves both the
+ * allocation and the heap it would hold for the lifetime of the widget.
+ *
+ * <p>Each cache is a fixed-size, direct-mapped table keyed by the two ints packed into a long, so
+ * memory stays bounded and a lookup is a hash and an array read. A colliding value simply replaces
+ * the cached one. Slots are read and written without synchronisation, which is safe as the cached
+ * values are immutable and their fields final.
+ */
+public final class Geometry {
+  private static final int SLOTS = 1 << 14;
+
+  private static final Coordinates[] COORDINATES = new Coordinates[SLOTS];
+  private static final Dimensions[] DIMENSIONS = new Dimensions[SLOTS];
+
+  /**
+   * Returns coordinates with the given values, allocating only if they are not cached
+   *
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @return shared {@link Coordinates}
+   */
+  public static Coordinates coordinates(int x, int y) {
+    int slot = slot(x, y);
+    Coordinates cached = COORDINATES[slot];
+    if (cached != null && cached.getX() == x && cached.getY() == y) {
+      return cached;
+    }
+    Coordinates coordinates = Coordinates.builder().setX(x).setY(y).build();
+    COORDINATES[slot] = coordinates;
+    return coordinates;
+  }
+
+  /**
+   * Returns dimensions with the given values, allocating only if they are not cached
+   *
+   * @param width the width
+   * @param height the height
+   * @return shared {@link Dimensions}
+   */
+  public static Dimensions dimensions(int width, int height) {
+    int slot = slot(width, height);
+    Dimensions cached = DIMENSIONS[slot];
+    if (cached != null && cached.getWidth() == width && cached.getHeight() == height) {
+      return cached;
+    }
+    Dimensions dimensions = Dimensions.builder().setWidth(width).setHeight(height).build();
+    DIMENSIONS[slot] = dimensions;
+    return dimensions;
+  }
+
+  /**
+   * Returns the cached instance equal to the given coordinates, caching them if there is none
+   *
+   * @param coordinates the coordinates to intern
+   * @return shared {@link Coordinates} equal to the given ones
+   */
+  public static Coordinates intern(Coordinates coordinates) {
+    int slot = slot(coordinates.getX(), coordinates.getY());
+    Coordinates cached = COORDINATES[slot];
+    if (coordinates.equals(cached)) {
+      return cached;
+    }
+    COORDINATES[slot] = coordinates;
+    return coordinates;
+  }
+
+  /**
+   * Returns the cached instance equal to the given dimensions, caching them if there is none
+   *
+   * @param dimensions the dimensions to intern
+   * @return shared {@link Dimensions} equal to the given ones
+   */
+  public static Dimensions intern(Dimensions dimensions) {
+    int slot = slot(dimensions.getWidth(), dimensions.getHeight());
+    Dimensions cached = DIMENSIONS[slot];
+    if (dimensions.equals(cached)) {
+      return cached;
+    }
+    DIMENSIONS[slot] = dimensions;
+    return dimensions;
+  }
+
+  private static int slot(int first, int second) {
+    long packed = ((long) first << 32) | (second & 0xFFFFFFFFL);
+    packed ^= packed >>> 33;
+    packed *= 0xFF51AFD7ED558CCDL;
+    packed ^= packed >>> 33;
+    return (int) packed & (SLOTS - 1);
+  }
+
+  private Geometry() {
+    throw new IllegalAccessError();
+  }
+}
@@ -0,0 +1,16 @@
+package org.mirowidgets.model;
+
+import org.immutables.value.Value;
+import org.mirowidgets.value.Immutables;
+
+import java.util.List;
+
+@Value.Immutable
+@Immutables.DefaultStyle
+interface MutationModel {
+  /** the states before the mutation of the widgets it changed or removed */
+  List<Widget> getRemoved();
+
+  /** the states after the mutation of the widgets it changed or created */
+  List<Widget> getAdded();
+}
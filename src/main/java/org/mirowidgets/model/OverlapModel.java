@@ -0,0 +1,14 @@
+package org.mirowidgets.model;
+
+import org.immutables.value.Value;
+import org.mirowidgets.value.Immutables;
+
+@Value.Immutable
+@Immutables.DefaultStyle
+interface OverlapModel {
+  /** the overlapping widget with the lower Z-index */
+  Widget getFirst();
+
+  /** the overlapping widget with the higher Z-index */
+  Widget getSecond();
+}
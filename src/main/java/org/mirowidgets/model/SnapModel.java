@@ -0,0 +1,19 @@
+package org.mirowidgets.model;
+
+import org.immutables.value.Value;
+import org.mirowidgets.value.Immutables;
+
+import java.util.OptionalInt;
+
+@Value.Immutable
+@Immutables.DefaultStyle
+interface SnapModel {
+  /** the coordinates the widget snaps to, unchanged on an axis without a guide */
+  Coordinates getCoordinates();
+
+  /** the x of the vertical guide the widget snapped to */
+  OptionalInt getGuideX();
+
+  /** the y of the horizontal guide the widget snapped to */
+  OptionalInt getGuideY();
+}
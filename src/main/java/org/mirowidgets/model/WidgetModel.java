@@ -11,6 +11,9 @@ import java.time.LocalDateTime;
 @Immutables.DefaultStyle
 abstract class WidgetModel {
   private static final ULID ULID_INSTANCE = new ULID();
+  // Crockford's base 32, in which a ULID is written
+  private static final String ULID_DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+  private static final int ULID_LENGTH = 26;
 
   abstract Coordinates getCoordinates();
 
@@ -32,5 +35,20 @@ abstract class WidgetModel {
   protected void check() {
     Preconditions.checkState(getDimensions().getWidth() > 0, "width must be greater than zero");
     Preconditions.checkState(getDimensions().getHeight() > 0, "height must be greater than zero");
+    Preconditions.checkState(isUlid(getId()), "id must be a ULID");
+  }
+
+  /** Whether an id is a ULID as the store writes them, in upper case, so it survives encoding */
+  private static boolean isUlid(String id) {
+    // the first digit only holds the top 3 of the 128 bits
+    if (id.length() != ULID_LENGTH || id.charAt(0) > '7') {
+      return false;
+    }
+    for (int i = 0; i < ULID_LENGTH; i++) {
+      if (ULID_DIGITS.indexOf(id.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
   }
 }
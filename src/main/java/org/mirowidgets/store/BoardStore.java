@@ -0,0 +1,417 @@
+package org.mirowidgets.store;
+
+import com.google.common.base.Preconditions;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
+import org.mirowidgets.model.Widget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Holds many boards, keeping only recently used ones on the heap. A board that has been idle for
+ * longer than the idle timeout, or is the least recently used one when too many boards are
+ * resident, is paged out to a {@link WidgetFiles} file in the store's directory and transparently
+ * paged back in, through a memory mapping, the next time it is accessed.
+ *
+ * <p>A board that cannot be written when it is paged out is logged and stays resident, even beyond
+ * the maximum, and is not tried again until it changes or the store is closed.
+ */
+public final class BoardStore implements Closeable {
+  private static final Pattern BOARD_ID = Pattern.compile("[A-Za-z0-9_-]+");
+  private static final String FILE_SUFFIX = ".widgets";
+  private static final Logger LOGGER = Logger.getLogger(BoardStore.class.getName());
+
+  private final Path directory;
+  private final int maximumBoards;
+  private final long idleTimeoutNanos;
+  private final ConcurrentMap<String, Board> residentBoards = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService sweeper =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "board-store-sweeper");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  BoardStore(Path directory, int maximumBoards, Duration idleTimeout) {
+    Preconditions.checkArgument(maximumBoards > 0, "maximumBoards must be greater than zero");
+    Preconditions.checkArgument(!idleTimeout.isNegative(), "idleTimeout must not be negative");
+    this.directory = directory;
+    this.maximumBoards = maximumBoards;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+    long period = Math.max(1, idleTimeout.toMillis() / 2);
+    sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the store for a board. The returned store pages the board in whenever it is used, so
+   * it remains valid after the board has been paged out. Only the widgets are paged out, so paging
+   * a board out discards its undo and redo history
+   *
+   * @param boardId the board's id, made of letters, digits, '-' and '_'
+   * @return the board's {@link WidgetStore}
+   */
+  public WidgetStore board(String boardId) {
+    Preconditions.checkArgument(BOARD_ID.matcher(boardId).matches(), "invalid board id");
+    return new BoardHandle(boardId);
+  }
+
+  /** @return the number of boards currently held on the heap */
+  public int residentBoards() {
+    return residentBoards.size();
+  }
+
+  /**
+   * Estimates the heap held by the boards currently resident, without paging any in
+   *
+   * @return the sum of the resident boards' {@link WidgetStore#estimatedRetainedSize()}
+   */
+  public long estimatedRetainedSize() {
+    return residentBoards.values().stream()
+        .mapToLong(board -> board.store.estimatedRetainedSize())
+        .sum();
+  }
+
+  /**
+   * Pages out every board that has not been accessed for longer than the idle timeout. This runs
+   * periodically in the background, but may also be called directly. Boards that cannot be written
+   * are logged and stay resident
+   */
+  public void evictIdle() {
+    long now = System.nanoTime();
+    for (Board board : residentBoards.values()) {
+      if (now - board.lastAccess > idleTimeoutNanos && !board.isUnwritable()) {
+        tryPageOut(board);
+      }
+    }
+  }
+
+  /**
+   * Stops the background sweeper and pages every resident board out. A board that cannot be
+   * written does not stop the others being paged out
+   *
+   * @throws IOException if any board cannot be written, with the failures of the others suppressed
+   */
+  @Override
+  public void close() throws IOException {
+    sweeper.shutdownNow();
+    IOException failure = null;
+    for (Board board : residentBoards.values()) {
+      try {
+        pageOut(board);
+      } catch (RuntimeException e) {
+        IOException boardFailure = new IOException("cannot page out board " + board.id, e);
+        if (failure == null) {
+          failure = boardFailure;
+        } else {
+          failure.addSuppressed(boardFailure);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private <T> T withBoard(String boardId, Function<WidgetStore, T> operation) {
+    while (true) {
+      // the file is read outside the map, so only callers of this board wait for it
+      Board board = residentBoards.computeIfAbsent(boardId, Board::new);
+      if (!board.loaded) {
+        pageIn(board);
+      }
+      if (residentBoards.size() > maximumBoards) {
+        evictLeastRecentlyUsed(board);
+      }
+      board.lock.readLock().lock();
+      try {
+        if (board.resident) {
+          board.lastAccess = System.nanoTime();
+          return operation.apply(board.store);
+        }
+      } finally {
+        board.lock.readLock().unlock();
+      }
+      // paged out between lookup and lock, so fault it back in
+    }
+  }
+
+  private void evictLeastRecentlyUsed(Board accessed) {
+    residentBoards.values().stream()
+        .filter(board -> board != accessed && !board.isUnwritable())
+        .min(Comparator.comparingLong(board -> board.lastAccess))
+        .ifPresent(this::tryPageOut);
+  }
+
+  /** Pages a board out for the caller that evicts it, who must not fail on its account */
+  private void tryPageOut(Board board) {
+    try {
+      pageOut(board);
+    } catch (RuntimeException e) {
+      board.unwritableVersion = board.store.version();
+      LOGGER.log(Level.WARNING, "cannot page out board " + board.id + ", keeping it resident", e);
+    }
+  }
+
+  /** Reads a board's file into it once, dropping the board if the file cannot be read */
+  private void pageIn(Board board) {
+    board.lock.writeLock().lock();
+    try {
+      if (board.loaded || !board.resident) {
+        return;
+      }
+      Path file = fileFor(board.id);
+      if (Files.exists(file)) {
+        WidgetFiles.read(file, board.store);
+      }
+      board.loaded = true;
+    } catch (IOException e) {
+      board.resident = false;
+      residentBoards.remove(board.id, board);
+      throw new UncheckedIOException(e);
+    } finally {
+      board.lock.writeLock().unlock();
+    }
+  }
+
+  private void pageOut(Board board) {
+    board.lock.writeLock().lock();
+    try {
+      if (!board.resident) {
+        return;
+      }
+      // a board evicted before it was read still has its file as it was
+      if (board.loaded) {
+        WidgetFiles.write(board.store, fileFor(board.id));
+      }
+      board.resident = false;
+      // only removed once written, so a concurrent page-in always reads the latest file
+      residentBoards.remove(board.id, board);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      board.lock.writeLock().unlock();
+    }
+  }
+
+  private Path fileFor(String boardId) {
+    return directory.resolve(boardId + FILE_SUFFIX);
+  }
+
+  private static final class Board {
+    private final String id;
+    private final WidgetStore store = new InMemoryWidgetStore();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long lastAccess = System.nanoTime();
+    // the version the board was at when it last failed to be written
+    private volatile long unwritableVersion = -1;
+    private volatile boolean loaded;
+    private boolean resident = true;
+
+    private Board(String id) {
+      this.id = id;
+    }
+
+    /** Whether the board failed to be written and has not changed since */
+    private boolean isUnwritable() {
+      return unwritableVersion == store.version();
+    }
+  }
+
+  private final class BoardHandle implements WidgetStore {
+    private final String boardId;
+
+    private BoardHandle(String boardId) {
+      this.boardId = boardId;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> list() {
+      return withBoard(boardId, WidgetStore::list);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Widget create(Coordinates coordinates, Dimensions dimensions, int zIndex) {
+      return withBoard(boardId, store -> store.create(coordinates, dimensions, zIndex));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Widget create(Coordinates coordinates, Dimensions dimensions) {
+      return withBoard(boardId, store -> store.create(coordinates, dimensions));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void load(Stream<Widget> widgets) {
+      withBoard(
+          boardId,
+          store -> {
+            store.load(widgets);
+            return null;
+          });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void forEachOrdered(Consumer<? super Widget> action) {
+      withBoard(
+          boardId,
+          store -> {
+            store.forEachOrdered(action);
+            return null;
+          });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Widget> get(String id) {
+      return withBoard(boardId, store -> store.get(id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Overlap> overlaps() {
+      return withBoard(boardId, WidgetStore::overlaps);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> overlaps(String id) {
+      return withBoard(boardId, store -> store.overlaps(id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance) {
+      return withBoard(boardId, store -> store.snap(coordinates, dimensions, tolerance));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Snap> snap(Coordinates coordinates, int tolerance, String id) {
+      return withBoard(boardId, store -> store.snap(coordinates, tolerance, id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Widget> update(Coordinates coordinates, String id) {
+      return withBoard(boardId, store -> store.update(coordinates, id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Widget> update(Dimensions dimensions, String id) {
+      return withBoard(boardId, store -> store.update(dimensions, id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Widget> update(int zIndex, String id) {
+      return withBoard(boardId, store -> store.update(zIndex, id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Optional<Widget> update(
+        Dimensions dimensions, Coordinates coordinates, int zIndex, String id) {
+      return withBoard(boardId, store -> store.update(dimensions, coordinates, zIndex, id));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> bringToFront(Collection<String> ids) {
+      return withBoard(boardId, store -> store.bringToFront(ids));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> sendToBack(Collection<String> ids) {
+      return withBoard(boardId, store -> store.sendToBack(ids));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> moveAbove(Collection<String> ids, String targetId) {
+      return withBoard(boardId, store -> store.moveAbove(ids, targetId));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Widget> moveBelow(Collection<String> ids, String targetId) {
+      return withBoard(boardId, store -> store.moveBelow(ids, targetId));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void remove(Widget widget) {
+      withBoard(
+          boardId,
+          store -> {
+            store.remove(widget);
+            return null;
+          });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+      withBoard(
+          boardId,
+          store -> {
+            store.clear();
+            return null;
+          });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long estimatedRetainedSize() {
+      return withBoard(boardId, WidgetStore::estimatedRetainedSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long version() {
+      return withBoard(boardId, WidgetStore::version);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean undo() {
+      return withBoard(boardId, WidgetStore::undo);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean redo() {
+      return withBoard(boardId, WidgetStore::redo);
+    }
+  }
+}
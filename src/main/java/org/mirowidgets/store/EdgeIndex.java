@@ -0,0 +1,195 @@
+package org.mirowidgets.store;
+
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Snap;
+import org.mirowidgets.model.Widget;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+/**
+ * Sorted indexes of the left, center and right edges of every widget on the x axis, and of the
+ * top, center and bottom edges on the y axis, so that the edges near a dragged widget are found by
+ * binary search. Edges beyond the int range are clamped to it. A board without an index can be
+ * snapped by scanning it, with the same results.
+ *
+ * <p>Each change to a widget updates all six {@link SortedInts}, each shifting at most one block
+ * of values and one block reference per block on the board, rather than every value on it.
+ */
+final class EdgeIndex {
+  // each axis holds its start, center and end edges, in that order
+  private static final int LEFT = 0;
+  private static final int TOP = 3;
+  private static final int EDGES = 6;
+
+  private final SortedInts[] edges = new SortedInts[EDGES];
+
+  EdgeIndex() {
+    for (int edge = 0; edge < EDGES; edge++) {
+      edges[edge] = new SortedInts();
+    }
+  }
+
+  void add(Widget widget) {
+    for (int edge = 0; edge < EDGES; edge++) {
+      edges[edge].add(edge(widget, edge));
+    }
+  }
+
+  void remove(Widget widget) {
+    for (int edge = 0; edge < EDGES; edge++) {
+      edges[edge].remove(edge(widget, edge));
+    }
+  }
+
+  void replace(Widget previous, Widget next) {
+    for (int edge = 0; edge < EDGES; edge++) {
+      edges[edge].replace(edge(previous, edge), edge(next, edge));
+    }
+  }
+
+  /** Replaces the contents with the edges of the given widgets, building each index in parallel */
+  void reset(Widget[] widgets) {
+    IntStream.range(0, EDGES)
+        .parallel()
+        .forEach(
+            edge -> {
+              int[] values = new int[widgets.length];
+              Arrays.parallelSetAll(values, i -> edge(widgets[i], edge));
+              edges[edge].reset(values);
+            });
+  }
+
+  /** @return the estimated heap held by the index's arrays */
+  long bytes() {
+    long bytes = 0;
+    for (SortedInts values : edges) {
+      bytes += values.bytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Snaps a widget to the nearest edge or center of another widget on each axis
+   *
+   * @param excluded the widget being dragged, whose own edges are ignored, or null
+   */
+  Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance, Widget excluded) {
+    return snap(
+        coordinates,
+        dimensions,
+        (edge, probe) ->
+            edges[edge].nearest(
+                probe, tolerance, excluded != null, excluded == null ? 0 : edge(excluded, edge)));
+  }
+
+  /**
+   * Snaps a widget as {@link #snap(Coordinates, Dimensions, int, Widget)} does, by scanning every
+   * widget instead of an index
+   *
+   * @param excluded the widget being dragged, whose own edges are ignored, or null
+   */
+  static Snap scan(
+      Collection<Widget> widgets,
+      Coordinates coordinates,
+      Dimensions dimensions,
+      int tolerance,
+      Widget excluded) {
+    return snap(
+        coordinates,
+        dimensions,
+        (edge, probe) -> {
+          long nearest = SortedInts.NONE;
+          long distance = (long) tolerance + 1;
+          for (Widget widget : widgets) {
+            if (excluded != null && widget.getId().equals(excluded.getId())) {
+              continue;
+            }
+            int value = edge(widget, edge);
+            long difference = Math.abs((long) value - probe);
+            // ties go to the greater edge, as they do in the index
+            if (difference <= tolerance
+                && (difference < distance || (difference == distance && value > nearest))) {
+              nearest = value;
+              distance = difference;
+            }
+          }
+          return nearest;
+        });
+  }
+
+  private static Snap snap(Coordinates coordinates, Dimensions dimensions, Nearest nearest) {
+    Guide vertical = guide(coordinates.getX(), dimensions.getWidth(), LEFT, nearest);
+    Guide horizontal = guide(coordinates.getY(), dimensions.getHeight(), TOP, nearest);
+
+    Snap.Builder snap =
+        Snap.builder()
+            .setCoordinates(
+                Coordinates.builder()
+                    .setX(clamp(coordinates.getX() + (vertical == null ? 0 : vertical.shift)))
+                    .setY(clamp(coordinates.getY() + (horizontal == null ? 0 : horizontal.shift)))
+                    .build());
+    if (vertical != null) {
+      snap.setGuideX(vertical.position);
+    }
+    if (horizontal != null) {
+      snap.setGuideY(horizontal.position);
+    }
+    return snap.build();
+  }
+
+  /**
+   * Finds the indexed edge nearest to any of the start, center and end of a widget on one axis
+   *
+   * @param first the first of the axis' three edge indexes
+   * @return the nearest guide within the tolerance, or null if there is none
+   */
+  private static Guide guide(int start, int length, int first, Nearest nearestEdge) {
+    Guide nearest = null;
+    for (int probe = 0; probe < 3; probe++) {
+      int value = edge(start, length, probe);
+      for (int edge = first; edge < first + 3; edge++) {
+        long position = nearestEdge.nearest(edge, value);
+        if (position != SortedInts.NONE
+            && (nearest == null || Math.abs(position - value) < Math.abs(nearest.shift))) {
+          nearest = new Guide((int) position, position - value);
+        }
+      }
+    }
+    return nearest;
+  }
+
+  private static int edge(Widget widget, int edge) {
+    return edge < TOP
+        ? edge(widget.getCoordinates().getX(), widget.getDimensions().getWidth(), edge - LEFT)
+        : edge(widget.getCoordinates().getY(), widget.getDimensions().getHeight(), edge - TOP);
+  }
+
+  /** the start, center or end of a span, for 0, 1 and 2 respectively */
+  private static int edge(int start, int length, int which) {
+    return clamp(start + (long) length * which / 2);
+  }
+
+  private static int clamp(long value) {
+    return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+  }
+
+  /** Finds the edge of one kind nearest to a probe, within the tolerance */
+  @FunctionalInterface
+  private interface Nearest {
+    /** @return the nearest edge, or {@link SortedInts#NONE} */
+    long nearest(int edge, int probe);
+  }
+
+  private static final class Guide {
+    private final int position;
+    private final long shift;
+
+    private Guide(int position, long shift) {
+      this.position = position;
+      this.shift = shift;
+    }
+  }
+}
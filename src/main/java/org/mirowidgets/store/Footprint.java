@@ -0,0 +1,44 @@
+package org.mirowidgets.store;
+
+/**
+ * Estimated shallow sizes, in bytes, of the objects a store keeps for each widget, assuming a
+ * 64-bit JVM with compressed references, 12 byte object headers and 8 byte alignment. They are
+ * meant to be checked against the heap measurements of the footprint benchmark whenever the
+ * store's representation changes.
+ */
+final class Footprint {
+  /** a Widget: its header, five references and the Z-index */
+  static final long WIDGET = 40;
+
+  /** a Coordinates or Dimensions: its header and two ints */
+  static final long GEOMETRY = 24;
+
+  /** a LocalDateTime with the LocalDate and LocalTime it holds */
+  static final long TIMESTAMP = 72;
+
+  /** a 26 character ULID String with its Latin-1 byte array */
+  static final long ID = 72;
+
+  /** a TreeMap entry with its boxed Integer key */
+  static final long Z_INDEX_ENTRY = 56;
+
+  /** a HashMap node, not counting its slot in the table */
+  static final long ID_ENTRY = 32;
+
+  static final long ARRAY_HEADER = 16;
+  static final long REFERENCE = 4;
+  static final long INT = 4;
+
+  /** @return the estimated size of a HashMap's table once it has held the given entries */
+  static long hashTable(int entries, int initialCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(initialCapacity - 1, 1)) << 1;
+    while (capacity * 0.75 < entries) {
+      capacity <<= 1;
+    }
+    return ARRAY_HEADER + REFERENCE * capacity;
+  }
+
+  private Footprint() {
+    throw new IllegalAccessError();
+  }
+}
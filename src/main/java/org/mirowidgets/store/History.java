@@ -0,0 +1,83 @@
+package org.mirowidgets.store;
+
+import org.mirowidgets.model.Mutation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded undo and redo history of the {@link Mutation}s made to a store. Each mutation holds
+ * only the widgets it changed, before and after, so undoing or redoing one costs as much as the
+ * change itself. The oldest mutations are evicted once there are more than a given number or
+ * their estimated size exceeds a memory budget.
+ */
+final class History {
+  static final int DEFAULT_EDITS = 100;
+  static final long DEFAULT_BUDGET_BYTES = 8L << 20;
+
+  /** a rough estimate of a widget state only the history retains, with its timestamp */
+  private static final long WIDGET_BYTES = 128;
+
+  private static final long MUTATION_BYTES = 64;
+
+  private final Deque<Mutation> undo = new ArrayDeque<>();
+  private final Deque<Mutation> redo = new ArrayDeque<>();
+  private final int maximumEdits;
+  private final long budgetBytes;
+  private long bytes;
+
+  History(int maximumEdits, long budgetBytes) {
+    this.maximumEdits = maximumEdits;
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Records a new mutation, which discards everything that could be redone */
+  void record(Mutation mutation) {
+    redo.forEach(undone -> bytes -= size(undone));
+    redo.clear();
+    undo.push(mutation);
+    bytes += size(mutation);
+    while (!undo.isEmpty() && (undo.size() > maximumEdits || bytes > budgetBytes)) {
+      bytes -= size(undo.removeLast());
+    }
+  }
+
+  /** @return whether a mutation of the given number of widgets would be kept once recorded */
+  boolean fits(int widgets) {
+    return MUTATION_BYTES + widgets * WIDGET_BYTES <= budgetBytes;
+  }
+
+  /** @return the latest mutation to undo, or null if there is none */
+  Mutation undo() {
+    Mutation mutation = undo.poll();
+    if (mutation != null) {
+      redo.push(mutation);
+    }
+    return mutation;
+  }
+
+  /** @return the latest undone mutation to redo, or null if there is none */
+  Mutation redo() {
+    Mutation mutation = redo.poll();
+    if (mutation != null) {
+      undo.push(mutation);
+    }
+    return mutation;
+  }
+
+  void clear() {
+    undo.clear();
+    redo.clear();
+    bytes = 0;
+  }
+
+  /** @return the estimated heap held by the history, in bytes */
+  long bytes() {
+    return bytes;
+  }
+
+  private static long size(Mutation mutation) {
+    return MUTATION_BYTES
+        + (mutation.getRemoved().size() + mutation.getAdded().size()) * WIDGET_BYTES;
+  }
+}
@@ -1,36 +1,104 @@
 package org.mirowidgets.store;
 
+import com.google.common.base.Preconditions;
+import org.mirowidgets.model.Change;
 import org.mirowidgets.model.Coordinates;
 import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Geometry;
+import org.mirowidgets.model.Mutation;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
 import org.mirowidgets.model.Widget;
 
 import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.OptionalInt;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 class InMemoryWidgetStore implements WidgetStore {
-  private final Map<Integer, Widget> zIndexToWidget = new HashMap<>(1000);
-  private final Map<String, Widget> idToWidget = new HashMap<>(1000);
-  private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
+  // undoing or redoing more changes than this drops the edge index instead of patching it
+  private static final int BULK_CHANGES = 1024;
+  private static final int INITIAL_CAPACITY = 1000;
+
+  private final NavigableMap<Integer, Widget> zIndexToWidget = new TreeMap<>();
+  private final Map<String, Widget> idToWidget = new HashMap<>(INITIAL_CAPACITY);
+  // built on the first snap after a load, in the background; until it is ready snaps scan
+  private EdgeIndex edgeIndex = new EdgeIndex();
+  // the widget states before and after each change made while the edge index is being built
+  private List<Widget[]> edgeIndexChanges;
+  private long edgeIndexGeneration;
+  private final Object edgeIndexBuild = new Object();
+  private final Executor edgeIndexBuilder;
+  private final History history =
+      new History(History.DEFAULT_EDITS, History.DEFAULT_BUDGET_BYTES);
+  // the first widget changed under the current write lock, before and after, so that a single
+  // edit needs no map entry
+  private String changedId;
+  private Widget changedBefore;
+  private Widget changedAfter;
+  // widget id to its state before and after the other changes made under the write lock
+  private final Map<String, Widget[]> changes = new LinkedHashMap<>();
+  private boolean replayingHistory;
+  private long version;
+  private final List<Consumer<Change>> followers = new CopyOnWriteArrayList<>();
+  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
   private final Lock writeLock = readWriteLock.writeLock();
   private final Lock readLock = readWriteLock.readLock();
+  private final boolean internGeometry;
+
+  InMemoryWidgetStore() {
+    this(false);
+  }
+
+  /**
+   * @param internGeometry whether to share equal {@link Coordinates} and {@link Dimensions}
+   *     between widgets, through {@link Geometry}
+   */
+  InMemoryWidgetStore(boolean internGeometry) {
+    this(internGeometry, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param internGeometry whether to share equal {@link Coordinates} and {@link Dimensions}
+   *     between widgets, through {@link Geometry}
+   * @param edgeIndexBuilder runs the builds of the edge index, which must not run on the thread
+   *     that starts them, as it holds the read lock
+   */
+  InMemoryWidgetStore(boolean internGeometry, Executor edgeIndexBuilder) {
+    this.internGeometry = internGeometry;
+    this.edgeIndexBuilder = edgeIndexBuilder;
+  }
 
   /** {@inheritDoc} */
   @Override
   public List<Widget> list() {
     try {
       readLock.lock();
-      return zIndexToWidget.values().stream()
-          .sorted(Comparator.comparingInt(Widget::getZIndex))
-          .collect(Collectors.toUnmodifiableList());
+      return List.copyOf(zIndexToWidget.values());
     } finally {
       readLock.unlock();
     }
@@ -42,16 +110,16 @@ class InMemoryWidgetStore implements WidgetStore {
 
     Widget widget =
         Widget.builder()
-            .setCoordinates(coordinates)
+            .setCoordinates(canonical(coordinates))
             .setZIndex(zIndex)
-            .setDimensions(dimensions)
+            .setDimensions(canonical(dimensions))
             .build();
 
     try {
       writeLock.lock();
       positionWidget(widget);
     } finally {
-      writeLock.unlock();
+      releaseWriteLock();
     }
     return widget;
   }
@@ -64,17 +132,110 @@ class InMemoryWidgetStore implements WidgetStore {
       int max = getMaxZIndex();
       Widget widget =
           Widget.builder()
-              .setCoordinates(coordinates)
-              .setDimensions(dimensions)
+              .setCoordinates(canonical(coordinates))
+              .setDimensions(canonical(dimensions))
               .setZIndex(max + 1)
               .build();
       positionWidget(widget);
       return widget;
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void load(Stream<Widget> widgets) {
+    if (internGeometry) {
+      widgets =
+          widgets.map(
+              widget ->
+                  widget
+                      .withCoordinates(Geometry.intern(widget.getCoordinates()))
+                      .withDimensions(Geometry.intern(widget.getDimensions())));
+    }
+    Widget[] sorted = widgets.toArray(Widget[]::new);
+    Arrays.parallelSort(sorted, Comparator.comparingInt(Widget::getZIndex));
+
+    Map<String, Widget> byId = new HashMap<>(Math.max(16, (int) (sorted.length / 0.75f) + 1));
+    for (int i = 0; i < sorted.length; i++) {
+      Widget widget = sorted[i];
+      if (i > 0 && widget.getZIndex() <= sorted[i - 1].getZIndex()) {
+        int previous = sorted[i - 1].getZIndex();
+        if (previous == Integer.MAX_VALUE) {
+          throw new IllegalStateException();
+        }
+        widget = widget.withZIndex(previous + 1);
+        sorted[i] = widget;
+      }
+      if (byId.put(widget.getId(), widget) != null) {
+        throw new IllegalArgumentException("duplicate widget id " + widget.getId());
+      }
+    }
+
+    try {
+      writeLock.lock();
+      replaceAll(sorted, byId);
+      version++;
+      if (!followers.isEmpty()) {
+        publish(
+            Change.builder()
+                .setVersion(version)
+                .setReset(true)
+                .setMutation(Mutation.builder().addAdded(sorted).build())
+                .build());
+      }
     } finally {
       writeLock.unlock();
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public long version() {
+    try {
+      readLock.lock();
+      return version;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long estimatedRetainedSize() {
+    try {
+      readLock.lock();
+      int widgets = idToWidget.size();
+      long perWidget =
+          Footprint.WIDGET
+              + Footprint.TIMESTAMP
+              + Footprint.ID
+              + Footprint.Z_INDEX_ENTRY
+              + Footprint.ID_ENTRY
+              // interned geometry is counted as shared, which undercounts boards with more
+              // distinct positions and sizes than Geometry caches
+              + (internGeometry ? 0 : 2 * Footprint.GEOMETRY);
+      return widgets * perWidget
+          + Footprint.hashTable(widgets, INITIAL_CAPACITY)
+          + (edgeIndex == null ? 0 : edgeIndex.bytes())
+          + history.bytes();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void forEachOrdered(Consumer<? super Widget> action) {
+    try {
+      readLock.lock();
+      zIndexToWidget.values().forEach(action);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public Optional<Widget> get(String id) {
@@ -86,25 +247,92 @@ class InMemoryWidgetStore implements WidgetStore {
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public List<Overlap> overlaps() {
+    Widget[] widgets;
+    try {
+      readLock.lock();
+      widgets = idToWidget.values().toArray(new Widget[0]);
+    } finally {
+      readLock.unlock();
+    }
+    return OverlapSweep.overlaps(widgets);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> overlaps(String id) {
+    try {
+      readLock.lock();
+      Widget widget = idToWidget.get(id);
+      if (widget == null) {
+        return List.of();
+      }
+      return zIndexToWidget.values().stream()
+          .filter(other -> other != widget && OverlapSweep.overlap(widget, other))
+          .collect(Collectors.toUnmodifiableList());
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance) {
+    try {
+      readLock.lock();
+      EdgeIndex index = edgeIndex();
+      return index != null
+          ? index.snap(coordinates, dimensions, tolerance, null)
+          : EdgeIndex.scan(idToWidget.values(), coordinates, dimensions, tolerance, null);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Snap> snap(Coordinates coordinates, int tolerance, String id) {
+    try {
+      readLock.lock();
+      Widget widget = idToWidget.get(id);
+      if (widget == null) {
+        return Optional.empty();
+      }
+      EdgeIndex index = edgeIndex();
+      return Optional.of(
+          index != null
+              ? index.snap(coordinates, widget.getDimensions(), tolerance, widget)
+              : EdgeIndex.scan(
+                  idToWidget.values(), coordinates, widget.getDimensions(), tolerance, widget));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public Optional<Widget> update(Coordinates coordinates, String id) {
     Optional<Widget> optionalWidget = get(id);
     if (optionalWidget.isPresent()) {
-      Widget widget = optionalWidget.get();
-      if (widget.getCoordinates().equals(coordinates)) {
+      if (optionalWidget.get().getCoordinates().equals(coordinates)) {
         return optionalWidget;
       }
-      Widget withCoordinates =
-          widget.withCoordinates(coordinates).withLastModified(LocalDateTime.now());
       try {
         writeLock.lock();
-        zIndexToWidget.put(withCoordinates.getZIndex(), withCoordinates);
-        idToWidget.put(withCoordinates.getId(), withCoordinates);
+        // re-read, the widget may have been shifted or removed since
+        Widget widget = idToWidget.get(id);
+        if (widget == null) {
+          return Optional.empty();
+        }
+        Widget withCoordinates =
+            widget.withCoordinates(canonical(coordinates)).withLastModified(LocalDateTime.now());
+        put(withCoordinates);
+        return Optional.of(withCoordinates);
       } finally {
-        writeLock.unlock();
+        releaseWriteLock();
       }
-      return Optional.of(withCoordinates);
     } else {
       return Optional.empty();
     }
@@ -115,20 +343,23 @@ class InMemoryWidgetStore implements WidgetStore {
   public Optional<Widget> update(Dimensions dimensions, String id) {
     Optional<Widget> optionalWidget = get(id);
     if (optionalWidget.isPresent()) {
-      Widget widget = optionalWidget.get();
-      if (widget.getDimensions().equals(dimensions)) {
+      if (optionalWidget.get().getDimensions().equals(dimensions)) {
         return optionalWidget;
       }
-      Widget withDimensions =
-          widget.withDimensions(dimensions).withLastModified(LocalDateTime.now());
       try {
         writeLock.lock();
-        zIndexToWidget.put(withDimensions.getZIndex(), withDimensions);
-        idToWidget.put(withDimensions.getId(), withDimensions);
+        // re-read, the widget may have been shifted or removed since
+        Widget widget = idToWidget.get(id);
+        if (widget == null) {
+          return Optional.empty();
+        }
+        Widget withDimensions =
+            widget.withDimensions(canonical(dimensions)).withLastModified(LocalDateTime.now());
+        put(withDimensions);
+        return Optional.of(withDimensions);
       } finally {
-        writeLock.unlock();
+        releaseWriteLock();
       }
-      return Optional.of(withDimensions);
     } else {
       return Optional.empty();
     }
@@ -139,36 +370,26 @@ class InMemoryWidgetStore implements WidgetStore {
   public Optional<Widget> update(int zIndex, String id) {
     Optional<Widget> optionalWidget = get(id);
     if (optionalWidget.isPresent()) {
-      Widget widget = optionalWidget.get();
-      if (widget.getZIndex() == zIndex) {
+      if (optionalWidget.get().getZIndex() == zIndex) {
         return optionalWidget;
       }
-      Widget withNewZ = widget.withZIndex(zIndex).withLastModified(LocalDateTime.now());
-
-      readLock.lock();
-      if (!zIndexToWidget.containsKey(zIndex)) {
-        readLock.unlock(); // promote to write
-        writeLock.lock(); // and recheck
-        try {
-          if (!zIndexToWidget.containsKey(zIndex)) {
-            remove(widget);
-            idToWidget.put(id, withNewZ);
-            zIndexToWidget.put(withNewZ.getZIndex(), withNewZ);
-          }
-        } finally {
-          writeLock.unlock(); // unlock
+      try {
+        writeLock.lock();
+        // re-read, the widget may have been shifted or removed since
+        Widget widget = idToWidget.get(id);
+        if (widget == null) {
+          return Optional.empty();
         }
-      } else {
-        try {
-          readLock.unlock(); // unlock the first read lock and promote to write
-          writeLock.lock();
-          remove(widget);
-          positionWidget(withNewZ);
-        } finally {
-          writeLock.unlock();
+        if (widget.getZIndex() == zIndex) {
+          return Optional.of(widget);
         }
+        Widget withNewZ = widget.withZIndex(zIndex).withLastModified(LocalDateTime.now());
+        zIndexToWidget.remove(widget.getZIndex());
+        positionWidget(withNewZ);
+        return Optional.of(withNewZ);
+      } finally {
+        releaseWriteLock();
       }
-      return Optional.of(withNewZ);
     } else {
       return Optional.empty();
     }
@@ -178,9 +399,38 @@ class InMemoryWidgetStore implements WidgetStore {
   @Override
   public Optional<Widget> update(
       Dimensions dimensions, Coordinates coordinates, int zIndex, String id) {
-    return update(dimensions, id)
-        .flatMap(widget -> update(coordinates, id))
-        .flatMap(widget -> update(zIndex, id));
+    try {
+      writeLock.lock(); // so the three updates are undone as one
+      return update(dimensions, id)
+          .flatMap(widget -> update(coordinates, id))
+          .flatMap(widget -> update(zIndex, id));
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> bringToFront(Collection<String> ids) {
+    return reorder(ids, null, Placement.FRONT);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> sendToBack(Collection<String> ids) {
+    return reorder(ids, null, Placement.BACK);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> moveAbove(Collection<String> ids, String targetId) {
+    return reorder(ids, targetId, Placement.ABOVE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> moveBelow(Collection<String> ids, String targetId) {
+    return reorder(ids, targetId, Placement.BELOW);
   }
 
   /** {@inheritDoc} */
@@ -188,10 +438,13 @@ class InMemoryWidgetStore implements WidgetStore {
   public void remove(Widget widget) {
     try {
       writeLock.lock();
-      zIndexToWidget.remove(widget.getZIndex());
-      idToWidget.remove(widget.getId());
+      // the given widget may be stale, so remove it at its current Z-index
+      Widget current = idToWidget.get(widget.getId());
+      if (current != null) {
+        delete(current);
+      }
     } finally {
-      writeLock.unlock();
+      releaseWriteLock();
     }
   }
 
@@ -200,39 +453,555 @@ class InMemoryWidgetStore implements WidgetStore {
   public void clear() {
     try {
       writeLock.lock();
-      zIndexToWidget.clear();
-      idToWidget.clear();
+      if (history.fits(idToWidget.size())) {
+        idToWidget.values().forEach(widget -> recordChange(widget, null));
+        zIndexToWidget.clear();
+        idToWidget.clear();
+      } else {
+        // the history would evict a mutation this large at once, so start a new one as a load does
+        discardChanges();
+        replaceAll(new Widget[0], Map.of());
+        version++;
+        if (!followers.isEmpty()) {
+          publish(currentBoard());
+        }
+      }
+      invalidateEdgeIndex();
+      edgeIndex = new EdgeIndex();
     } finally {
-      writeLock.unlock();
+      releaseWriteLock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean undo() {
+    try {
+      writeLock.lock();
+      Mutation mutation = history.undo();
+      if (mutation == null) {
+        return false;
+      }
+      replay(mutation.getAdded(), mutation.getRemoved());
+      return true;
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean redo() {
+    try {
+      writeLock.lock();
+      Mutation mutation = history.redo();
+      if (mutation == null) {
+        return false;
+      }
+      replay(mutation.getRemoved(), mutation.getAdded());
+      return true;
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  /**
+   * Moves a selection to consecutive Z-indexes in one pass, keeping its relative order. Only the
+   * widgets directly in the way are shifted up, as {@link #positionWidget(Widget)} would
+   */
+  private List<Widget> reorder(Collection<String> ids, String targetId, Placement placement) {
+    try {
+      writeLock.lock();
+      Widget target = null;
+      if (targetId != null) {
+        Preconditions.checkArgument(
+            !ids.contains(targetId), "target must not be part of the selection");
+        target = idToWidget.get(targetId);
+        if (target == null) {
+          return List.of();
+        }
+      }
+      List<Widget> selection = new ArrayList<>(ids.size());
+      ids.stream().distinct().map(idToWidget::get).filter(Objects::nonNull).forEach(selection::add);
+      if (selection.isEmpty()) {
+        return List.of();
+      }
+      selection.sort(Comparator.comparingInt(Widget::getZIndex));
+      selection.forEach(widget -> zIndexToWidget.remove(widget.getZIndex()));
+
+      long start;
+      int lowest = selection.get(0).getZIndex();
+      switch (placement) {
+        case FRONT:
+          start = zIndexToWidget.isEmpty() ? lowest : zIndexToWidget.lastKey() + 1L;
+          break;
+        case BACK:
+          start =
+              zIndexToWidget.isEmpty()
+                  ? lowest
+                  : zIndexToWidget.firstKey() - (long) selection.size();
+          break;
+        case ABOVE:
+          start = target.getZIndex() + 1L;
+          break;
+        default:
+          start = target.getZIndex();
+          break;
+      }
+      long end = start + selection.size();
+      List<Widget> displaced = new ArrayList<>();
+      if (start >= Integer.MIN_VALUE && end - 1 <= Integer.MAX_VALUE) {
+        for (Widget widget : zIndexToWidget.tailMap((int) start, true).values()) {
+          if (widget.getZIndex() >= end) {
+            break;
+          }
+          displaced.add(widget);
+          end++;
+        }
+      }
+      if (start < Integer.MIN_VALUE || end - 1 > Integer.MAX_VALUE) {
+        selection.forEach(widget -> zIndexToWidget.put(widget.getZIndex(), widget));
+        throw new IllegalStateException();
+      }
+
+      displaced.forEach(widget -> zIndexToWidget.remove(widget.getZIndex()));
+      LocalDateTime now = LocalDateTime.now();
+      int zIndex = (int) start;
+      List<Widget> moved = new ArrayList<>(selection.size());
+      for (Widget widget : selection) {
+        Widget withNewZ = widget.withZIndex(zIndex++).withLastModified(now);
+        put(withNewZ);
+        moved.add(withNewZ);
+      }
+      for (Widget widget : displaced) {
+        put(widget.withZIndex(zIndex++));
+      }
+      return List.copyOf(moved);
+    } finally {
+      releaseWriteLock();
     }
   }
 
   private void positionWidget(Widget widget) {
     int zIndex = widget.getZIndex();
-    if (!zIndexToWidget.containsKey(zIndex)) {
-      zIndexToWidget.put(zIndex, widget);
-      idToWidget.put(widget.getId(), widget);
+    if (zIndexToWidget.containsKey(zIndex)) {
+      int free = zIndex;
+      while (zIndexToWidget.containsKey(free)) {
+        if (free == Integer.MAX_VALUE) {
+          throw new IllegalStateException();
+        }
+        free++;
+      }
+      // shift the run of widgets in the way up by one, from the top down
+      for (int shifted = free - 1; shifted >= zIndex; shifted--) {
+        put(zIndexToWidget.get(shifted).withZIndex(shifted + 1));
+      }
+    }
+    put(widget);
+  }
+
+  /**
+   * Stores a widget's new state, replacing its previous one if it has any. The widget's Z-index
+   * must be free, or held by its previous state
+   */
+  private void put(Widget widget) {
+    Widget previous = idToWidget.put(widget.getId(), widget);
+    if (previous != null) {
+      zIndexToWidget.remove(previous.getZIndex(), previous);
+    }
+    zIndexToWidget.put(widget.getZIndex(), widget);
+    indexEdges(previous, widget);
+    recordChange(previous, widget);
+  }
+
+  /** Removes a widget, given its current state */
+  private void delete(Widget widget) {
+    idToWidget.remove(widget.getId());
+    zIndexToWidget.remove(widget.getZIndex(), widget);
+    indexEdges(widget, null);
+    recordChange(widget, null);
+  }
+
+  /** Keeps the edge index up to date with a widget's change, once it is built */
+  private void indexEdges(Widget previous, Widget widget) {
+    if (edgeIndex != null) {
+      indexEdges(edgeIndex, previous, widget);
+    } else if (edgeIndexChanges != null) {
+      edgeIndexChanges.add(new Widget[] {previous, widget});
+    }
+  }
+
+  private static void indexEdges(EdgeIndex index, Widget previous, Widget widget) {
+    if (previous == null) {
+      index.add(widget);
+    } else if (widget == null) {
+      index.remove(previous);
+    } else if (!previous.getCoordinates().equals(widget.getCoordinates())
+        || !previous.getDimensions().equals(widget.getDimensions())) {
+      index.replace(previous, widget);
+    }
+  }
+
+  /**
+   * Returns the edge index if it is ready. Otherwise starts building it in the background, from a
+   * snapshot of the board, unless that is under way already. Called with the read lock held
+   *
+   * @return the edge index, or null if the board must be scanned
+   */
+  private EdgeIndex edgeIndex() {
+    if (edgeIndex == null) {
+      synchronized (edgeIndexBuild) {
+        if (edgeIndexChanges == null) {
+          edgeIndexChanges = new ArrayList<>();
+          long generation = edgeIndexGeneration;
+          Widget[] snapshot = idToWidget.values().toArray(Widget[]::new);
+          edgeIndexBuilder.execute(
+              () -> {
+                try {
+                  EdgeIndex built = new EdgeIndex();
+                  built.reset(snapshot);
+                  installEdgeIndex(built, generation);
+                } catch (RuntimeException | Error e) {
+                  abandonEdgeIndexBuild(generation);
+                  throw e;
+                }
+              });
+        }
+      }
+    }
+    return edgeIndex;
+  }
+
+  /** Catches a built edge index up with the changes made since its snapshot, and starts using it */
+  private void installEdgeIndex(EdgeIndex built, long generation) {
+    try {
+      writeLock.lock();
+      // unless the board was replaced while it was being built
+      if (generation == edgeIndexGeneration) {
+        for (Widget[] change : edgeIndexChanges) {
+          indexEdges(built, change[0], change[1]);
+        }
+        edgeIndexChanges = null;
+        edgeIndex = built;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** Lets the next snap start the build again after it failed, unless it was abandoned already */
+  private void abandonEdgeIndexBuild(long generation) {
+    try {
+      writeLock.lock();
+      if (generation == edgeIndexGeneration && edgeIndex == null) {
+        edgeIndexChanges = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** Drops the edge index, and abandons any build of it, until a snap needs it again */
+  private void invalidateEdgeIndex() {
+    edgeIndex = null;
+    edgeIndexChanges = null;
+    edgeIndexGeneration++;
+  }
+
+  /** Notes a widget's change, keeping its state from before the first change under the lock */
+  private void recordChange(Widget before, Widget after) {
+    String id = before != null ? before.getId() : after.getId();
+    if (changedId == null) {
+      changedId = id;
+      changedBefore = before;
+      changedAfter = after;
+    } else if (changedId.equals(id)) {
+      changedAfter = after;
     } else {
-      idToWidget.put(widget.getId(), widget);
-      Widget shiftedWidget;
-      while ((shiftedWidget = zIndexToWidget.replace(zIndex, widget)) != null) {
-        shiftedWidget = shiftedWidget.withZIndex(zIndex + 1);
-        idToWidget.put(shiftedWidget.getId(), shiftedWidget);
-        zIndex = shiftedWidget.getZIndex();
-        widget = shiftedWidget;
+      changes.computeIfAbsent(id, ignored -> new Widget[] {before, null})[1] = after;
+    }
+  }
+
+  /** @return whether any widget noted under the write lock ended in a different state */
+  private boolean changed() {
+    if (changedBefore != changedAfter) {
+      return true;
+    }
+    for (Widget[] change : changes.values()) {
+      if (change[0] != change[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the widgets noted under the write lock, in the order they first changed */
+  private Mutation committedMutation() {
+    Mutation.Builder mutation = Mutation.builder();
+    addChange(mutation, changedBefore, changedAfter);
+    for (Widget[] change : changes.values()) {
+      addChange(mutation, change[0], change[1]);
+    }
+    return mutation.build();
+  }
+
+  private static void addChange(Mutation.Builder mutation, Widget before, Widget after) {
+    if (before != after) {
+      if (before != null) {
+        mutation.addRemoved(before);
+      }
+      if (after != null) {
+        mutation.addAdded(after);
       }
-      idToWidget.put(widget.getId(), widget);
-      zIndexToWidget.put(widget.getZIndex(), widget);
     }
   }
 
+  private void discardChanges() {
+    changedId = null;
+    changedBefore = null;
+    changedAfter = null;
+    changes.clear();
+  }
+
+  /**
+   * Starts passing every change committed to the store to a follower, in version order, beginning
+   * with a reset to the current board. Followers are called while the store is locked for writing,
+   * so they must only hand the change on
+   */
+  void follow(Consumer<Change> follower) {
+    try {
+      writeLock.lock();
+      follower.accept(currentBoard());
+      followers.add(follower);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Starts passing every change committed to the store to a bounded queue, as {@link
+   * #follow(Consumer)} does. Once the queue is full, the changes still in it are replaced with a
+   * reset to the current board, so a follower that falls behind costs a copy of the board rather
+   * than unbounded memory
+   *
+   * @return the follower to {@link #unfollow(Consumer)}
+   */
+  Consumer<Change> follow(BlockingQueue<Change> queue) {
+    Consumer<Change> follower =
+        change -> {
+          if (!queue.offer(change)) {
+            // only followers add to the queue, and they are called under the write lock
+            queue.clear();
+            queue.add(currentBoard());
+          }
+        };
+    follow(follower);
+    return follower;
+  }
+
+  /** Stops passing changes to a follower, which is not being called once this returns */
+  void unfollow(Consumer<Change> follower) {
+    try {
+      writeLock.lock();
+      followers.remove(follower);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** @return a reset to the board at the current version, under the write lock */
+  private Change currentBoard() {
+    return Change.builder()
+        .setVersion(version)
+        .setReset(true)
+        .setMutation(Mutation.builder().addAllAdded(zIndexToWidget.values()).build())
+        .build();
+  }
+
+  /**
+   * Applies changes a followed store committed, in order, leaving this store at the version of the
+   * last one. The changes are passed on to this store's own followers, but not kept in its history
+   */
+  void apply(List<Change> committed) {
+    try {
+      writeLock.lock();
+      for (Change change : committed) {
+        List<Widget> added = change.getMutation().getAdded();
+        if (change.isReset()) {
+          Map<String, Widget> byId = new HashMap<>(Math.max(16, (int) (added.size() / 0.75f) + 1));
+          added.forEach(widget -> byId.put(widget.getId(), widget));
+          replaceAll(added.toArray(Widget[]::new), byId);
+        } else {
+          replay(change.getMutation().getRemoved(), added);
+          discardChanges();
+          replayingHistory = false;
+        }
+        version = change.getVersion();
+        publish(change);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** Replaces the board with widgets sorted by unique Z-index, which starts a new history */
+  private void replaceAll(Widget[] sorted, Map<String, Widget> byId) {
+    zIndexToWidget.clear();
+    idToWidget.clear();
+    zIndexToWidget.putAll(new SortedWidgets(sorted));
+    idToWidget.putAll(byId);
+    invalidateEdgeIndex();
+    history.clear();
+  }
+
+  private void publish(Change change) {
+    followers.forEach(follower -> follower.accept(change));
+  }
+
+  /** Replaces the given widget states with others, as undo and redo do */
+  private void replay(List<Widget> from, List<Widget> to) {
+    replayingHistory = true;
+    if (from.size() + to.size() > BULK_CHANGES) {
+      invalidateEdgeIndex();
+    }
+    for (Widget widget : from) {
+      Widget current = idToWidget.get(widget.getId());
+      if (current != null) {
+        delete(current);
+      }
+    }
+    to.forEach(this::put);
+  }
+
+  /**
+   * Releases the write lock. Once its outermost hold is released, the changes made under it are
+   * recorded as one {@link Mutation} in the history
+   */
+  private void releaseWriteLock() {
+    try {
+      if (readWriteLock.getWriteHoldCount() == 1) {
+        if (changedId != null && changed()) {
+          version++;
+          // an undo or redo is in the history already, so only followers need its mutation
+          if (!replayingHistory || !followers.isEmpty()) {
+            Mutation committed = committedMutation();
+            if (!replayingHistory) {
+              history.record(committed);
+            }
+            if (!followers.isEmpty()) {
+              publish(Change.builder().setVersion(version).setMutation(committed).build());
+            }
+          }
+        }
+        discardChanges();
+        replayingHistory = false;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private Coordinates canonical(Coordinates coordinates) {
+    return internGeometry ? Geometry.intern(coordinates) : coordinates;
+  }
+
+  private Dimensions canonical(Dimensions dimensions) {
+    return internGeometry ? Geometry.intern(dimensions) : dimensions;
+  }
+
   private int getMaxZIndex() {
-    OptionalInt maybeMax;
-    maybeMax = zIndexToWidget.keySet().stream().mapToInt(v -> v).max();
-    int max = maybeMax.orElse(-1);
+    int max = zIndexToWidget.isEmpty() ? -1 : zIndexToWidget.lastKey();
     if (max == Integer.MAX_VALUE) {
       throw new IllegalStateException();
     }
     return max;
   }
+
+  private enum Placement {
+    FRONT,
+    BACK,
+    ABOVE,
+    BELOW
+  }
+
+  /**
+   * A read-only {@link SortedMap} view of widgets already sorted by unique Z-index. Handing it to
+   * {@link TreeMap#putAll(Map)} on an empty map lets the tree be built bottom-up in linear time,
+   * rather than through one rebalancing insert per widget.
+   */
+  private static final class SortedWidgets extends AbstractMap<Integer, Widget>
+      implements SortedMap<Integer, Widget> {
+    private final Widget[] widgets;
+
+    private SortedWidgets(Widget[] widgets) {
+      this.widgets = widgets;
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+      return null;
+    }
+
+    @Override
+    public Set<Entry<Integer, Widget>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<Integer, Widget>> iterator() {
+          return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return next < widgets.length;
+            }
+
+            @Override
+            public Entry<Integer, Widget> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Widget widget = widgets[next++];
+              return new SimpleImmutableEntry<>(widget.getZIndex(), widget);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return widgets.length;
+        }
+      };
+    }
+
+    @Override
+    public Integer firstKey() {
+      if (widgets.length == 0) {
+        throw new NoSuchElementException();
+      }
+      return widgets[0].getZIndex();
+    }
+
+    @Override
+    public Integer lastKey() {
+      if (widgets.length == 0) {
+        throw new NoSuchElementException();
+      }
+      return widgets[widgets.length - 1].getZIndex();
+    }
+
+    @Override
+    public SortedMap<Integer, Widget> subMap(Integer fromKey, Integer toKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<Integer, Widget> headMap(Integer toKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<Integer, Widget> tailMap(Integer fromKey) {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
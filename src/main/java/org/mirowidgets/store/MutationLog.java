@@ -0,0 +1,252 @@
+package org.mirowidgets.store;
+
+import org.mirowidgets.model.Change;
+import org.mirowidgets.model.Mutation;
+import org.mirowidgets.model.Widget;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Appends the changes committed to a store to a file, from which {@link ReplicaWidgetStore}s in
+ * other processes can follow the store by tailing it. Changes are handed to a background thread
+ * to be written, so the store is never held up by the file. If the thread falls too far behind,
+ * the changes it has yet to write are replaced with a reset to the board.
+ *
+ * <p>A log is an 8 byte header followed by one frame per change: its version, whether it is a
+ * reset, the numbers of removed and added widgets and then their {@link WidgetFiles} records. The
+ * first frame resets a follower to the board as it was when the log was started. If the log stops
+ * after an error, it ends with an empty frame of version {@value #FAILED}, so that followers fail
+ * rather than wait for changes that will never be written.
+ */
+public final class MutationLog implements Closeable {
+  static final int MAGIC = 0x4D574D4C;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 8;
+  static final int FRAME_HEADER_SIZE = 17;
+  static final long FAILED = -1;
+
+  // the most changes waiting to be written before they are replaced with a reset
+  private static final int MAXIMUM_PENDING = 16_384;
+  // frames are encoded in memory first, so a failure never leaves half a frame in the log
+  private static final int MAXIMUM_RETAINED_FRAME = 1 << 20;
+  private static final long POLL_MILLIS = 5;
+  private static final Change CLOSED =
+      Change.builder().setVersion(-1).setMutation(Mutation.builder().build()).build();
+
+  private final InMemoryWidgetStore store;
+  private final DataOutputStream out;
+  private final BlockingQueue<Change> pending = new ArrayBlockingQueue<>(MAXIMUM_PENDING);
+  private final Consumer<Change> follower;
+  private final Thread writer;
+  private IOException failure;
+
+  MutationLog(InMemoryWidgetStore store, Path path) throws IOException {
+    this.store = store;
+    this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.flush();
+    writer = new Thread(this::writeChanges, "mutation-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+    follower = store.follow(pending);
+  }
+
+  /**
+   * Stops following the store, writes the changes still waiting to be written and closes the file
+   *
+   * @throws IOException the first error met writing the log, if any, after which the log holds
+   *     only the changes before it
+   */
+  @Override
+  public void close() throws IOException {
+    store.unfollow(follower);
+    try {
+      pending.put(CLOSED);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    out.close();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void writeChanges() {
+    List<Change> batch = new ArrayList<>();
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    DataOutputStream frameOut = new DataOutputStream(frame);
+    try {
+      while (true) {
+        batch.add(pending.take());
+        pending.drainTo(batch);
+        for (Change change : batch) {
+          if (change == CLOSED) {
+            out.flush();
+            return;
+          }
+          encode(change, frameOut);
+          frame.writeTo(out);
+          if (frame.size() > MAXIMUM_RETAINED_FRAME) {
+            frame = new ByteArrayOutputStream();
+            frameOut = new DataOutputStream(frame);
+          } else {
+            frame.reset();
+          }
+        }
+        batch.clear();
+        // flushed once per batch, so a follower sees changes as soon as the writer catches up
+        out.flush();
+      }
+    } catch (IOException e) {
+      stop(e);
+    } catch (RuntimeException e) {
+      stop(new IOException("cannot log change", e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops logging after an error, dropping the changes still waiting to be written, and ends the
+   * log with a failed frame if it can still be written
+   */
+  private void stop(IOException e) {
+    failure = e;
+    store.unfollow(follower);
+    pending.clear();
+    try {
+      encodeFailure(out);
+      out.flush();
+    } catch (IOException suppressed) {
+      e.addSuppressed(suppressed);
+    }
+  }
+
+  static void encode(Change change, DataOutputStream out) throws IOException {
+    Mutation mutation = change.getMutation();
+    out.writeLong(change.getVersion());
+    out.writeBoolean(change.isReset());
+    out.writeInt(mutation.getRemoved().size());
+    out.writeInt(mutation.getAdded().size());
+    for (Widget widget : mutation.getRemoved()) {
+      WidgetFiles.encode(widget, out);
+    }
+    for (Widget widget : mutation.getAdded()) {
+      WidgetFiles.encode(widget, out);
+    }
+  }
+
+  /** Writes the frame that ends a log its writer could not go on with */
+  static void encodeFailure(DataOutputStream out) throws IOException {
+    Mutation empty = Mutation.builder().build();
+    encode(Change.builder().setVersion(FAILED).setMutation(empty).build(), out);
+  }
+
+  /**
+   * Follows a log on a background thread, passing each change to a sink as its frame is completely
+   * written and waiting for more at the end of the file, until closed
+   *
+   * @param path the log to follow
+   * @param sink receives the changes, in order, and holds the tailing up while it is full
+   * @param onFailure receives the error that stopped the tailing, if it was not closed, including
+   *     the failure of the log's writer
+   * @return a handle that stops the tailing
+   * @throws IOException if the log cannot be opened or is not a mutation log
+   */
+  static Closeable tail(Path path, BlockingQueue<Change> sink, Consumer<IOException> onFailure)
+      throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (channel.read(header, 0) != HEADER_SIZE
+        || header.getInt(0) != MAGIC
+        || header.getInt(4) != VERSION) {
+      channel.close();
+      throw new IOException("not a mutation log");
+    }
+    Thread tailer =
+        new Thread(
+            () -> {
+              long[] position = {HEADER_SIZE};
+              try {
+                while (true) {
+                  sink.put(decode(channel, position));
+                }
+              } catch (ClosedByInterruptException | InterruptedException e) {
+                // closed
+              } catch (IOException e) {
+                onFailure.accept(e);
+              } finally {
+                try {
+                  channel.close();
+                } catch (IOException e) {
+                  // nothing more to read
+                }
+              }
+            },
+            "mutation-log-tailer");
+    tailer.setDaemon(true);
+    tailer.start();
+    return tailer::interrupt;
+  }
+
+  /** Reads the frame at a position, waiting for it to be written, and advances the position */
+  private static Change decode(FileChannel channel, long[] position)
+      throws IOException, InterruptedException {
+    ByteBuffer frame = readFully(channel, position, FRAME_HEADER_SIZE);
+    long version = frame.getLong(0);
+    boolean reset = frame.get(8) != 0;
+    int removed = frame.getInt(9);
+    int added = frame.getInt(13);
+    long size = ((long) removed + added) * WidgetFiles.RECORD_SIZE;
+    if (removed < 0 || added < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("corrupt mutation log frame at version " + version);
+    }
+    if (version == FAILED) {
+      throw new IOException("the mutation log stopped after its writer failed");
+    }
+    ByteBuffer records = readFully(channel, position, (int) size);
+    Mutation.Builder mutation = Mutation.builder();
+    for (int i = 0; i < removed; i++) {
+      mutation.addRemoved(WidgetFiles.decode(records, i * WidgetFiles.RECORD_SIZE));
+    }
+    for (int i = removed; i < removed + added; i++) {
+      mutation.addAdded(WidgetFiles.decode(records, i * WidgetFiles.RECORD_SIZE));
+    }
+    return Change.builder()
+        .setVersion(version)
+        .setReset(reset)
+        .setMutation(mutation.build())
+        .build();
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long[] position, int size)
+      throws IOException, InterruptedException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position[0]);
+      if (read > 0) {
+        position[0] += read;
+      } else {
+        Thread.sleep(POLL_MILLIS);
+      }
+    }
+    return buffer;
+  }
+}
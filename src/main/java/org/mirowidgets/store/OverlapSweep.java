@@ -0,0 +1,268 @@
+package org.mirowidgets.store;
+
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Widget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds every pair of overlapping widgets with a sweep line over their left edges, in O((n + k)
+ * log n) for n widgets and k overlaps.
+ *
+ * <p>A widget covers the half-open rectangle from its coordinates to its coordinates plus its
+ * dimensions, so widgets that only touch do not overlap. Widgets are visited by ascending left
+ * edge; the widgets the sweep line currently crosses are kept in a treap ordered by top edge and
+ * augmented with the maximum bottom edge of each subtree, so that the ones overlapping a new
+ * widget vertically are found without visiting the rest.
+ *
+ * <p>Large boards are cut into vertical tiles that are swept in parallel. A pair is reported only
+ * by the tile holding the left edge of its intersection, so no pair is reported twice. The widgets
+ * crossing a tile are found by binary search, starting from the widest widget's width to the left
+ * of it.
+ */
+final class OverlapSweep {
+  private static final int PARALLEL_THRESHOLD = 10_000;
+  private static final int INDEX_BITS = 30;
+
+  static List<Overlap> overlaps(Widget[] widgets) {
+    Arrays.sort(widgets, Comparator.comparingInt(widget -> widget.getCoordinates().getX()));
+    if (widgets.length < PARALLEL_THRESHOLD) {
+      return new OverlapSweep(widgets).sweep(Long.MIN_VALUE);
+    }
+    int tiles = Runtime.getRuntime().availableProcessors() * 4;
+    long[] bounds = new long[tiles + 1];
+    bounds[0] = Long.MIN_VALUE;
+    bounds[tiles] = Long.MAX_VALUE;
+    for (int tile = 1; tile < tiles; tile++) {
+      bounds[tile] = left(widgets[(int) ((long) tile * widgets.length / tiles)]);
+    }
+    long maxWidth = 0;
+    for (Widget widget : widgets) {
+      maxWidth = Math.max(maxWidth, widget.getDimensions().getWidth());
+    }
+    long widest = maxWidth;
+    return IntStream.range(0, tiles)
+        .parallel()
+        .mapToObj(
+            tile -> tile(widgets, bounds[tile], bounds[tile + 1], widest).sweep(bounds[tile]))
+        .flatMap(List::stream)
+        .collect(Collectors.toUnmodifiableList());
+  }
+
+  static boolean overlap(Widget first, Widget second) {
+    return left(first) < right(second)
+        && left(second) < right(first)
+        && top(first) < bottom(second)
+        && top(second) < bottom(first);
+  }
+
+  /** the widgets, still sorted by left edge, that cross the tile from {@code from} to {@code to} */
+  private static OverlapSweep tile(Widget[] widgets, long from, long to, long maxWidth) {
+    // a widget whose left edge is maxWidth or more before the tile ends before it too
+    int start = from == Long.MIN_VALUE ? 0 : firstLeftAtOrAfter(widgets, from - maxWidth + 1);
+    int end = firstLeftAtOrAfter(widgets, to);
+    Widget[] crossing = new Widget[Math.max(0, end - start)];
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (right(widgets[i]) > from) {
+        crossing[count++] = widgets[i];
+      }
+    }
+    return new OverlapSweep(Arrays.copyOf(crossing, count));
+  }
+
+  /** the first index whose widget has its left edge at or after the given one */
+  private static int firstLeftAtOrAfter(Widget[] widgets, long left) {
+    int low = 0;
+    int high = widgets.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (left(widgets[middle]) < left) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static long left(Widget widget) {
+    return widget.getCoordinates().getX();
+  }
+
+  private static long right(Widget widget) {
+    return (long) widget.getCoordinates().getX() + widget.getDimensions().getWidth();
+  }
+
+  private static long top(Widget widget) {
+    return widget.getCoordinates().getY();
+  }
+
+  private static long bottom(Widget widget) {
+    return (long) widget.getCoordinates().getY() + widget.getDimensions().getHeight();
+  }
+
+  private final Widget[] widgets;
+  private final long[] top;
+  private final long[] bottom;
+  private final long[] maxBottom;
+  private final int[] priority;
+  private final int[] leftChild;
+  private final int[] rightChild;
+
+  private OverlapSweep(Widget[] widgets) {
+    int n = widgets.length;
+    if (n >= 1 << INDEX_BITS) {
+      throw new IllegalStateException("too many widgets: " + n);
+    }
+    this.widgets = widgets;
+    this.top = new long[n];
+    this.bottom = new long[n];
+    this.maxBottom = new long[n];
+    this.priority = new int[n];
+    this.leftChild = new int[n];
+    this.rightChild = new int[n];
+    SplittableRandom random = new SplittableRandom(n);
+    for (int i = 0; i < n; i++) {
+      top[i] = top(widgets[i]);
+      bottom[i] = bottom(widgets[i]);
+      priority[i] = random.nextInt();
+    }
+  }
+
+  /** reports the overlaps whose intersection's left edge is at or after {@code from} */
+  private List<Overlap> sweep(long from) {
+    int n = widgets.length;
+    // widgets by ascending right edge, packed with their index so a primitive sort will do
+    long[] byRight = new long[n];
+    for (int i = 0; i < n; i++) {
+      byRight[i] = ((right(widgets[i]) - Integer.MIN_VALUE) << INDEX_BITS) | i;
+    }
+    Arrays.sort(byRight);
+
+    List<Overlap> overlaps = new ArrayList<>();
+    int root = -1;
+    int leaving = 0;
+    for (int i = 0; i < n; i++) {
+      long left = left(widgets[i]);
+      while (leaving < n && (byRight[leaving] >>> INDEX_BITS) + Integer.MIN_VALUE <= left) {
+        root = delete(root, (int) (byRight[leaving++] & ((1 << INDEX_BITS) - 1)));
+      }
+      if (left >= from) {
+        collect(root, i, overlaps);
+      }
+      leftChild[i] = -1;
+      rightChild[i] = -1;
+      maxBottom[i] = bottom[i];
+      root = insert(root, i);
+    }
+    return overlaps;
+  }
+
+  private void collect(int node, int widget, List<Overlap> overlaps) {
+    if (node == -1 || maxBottom[node] <= top[widget]) {
+      return;
+    }
+    collect(leftChild[node], widget, overlaps);
+    if (top[node] >= bottom[widget]) {
+      return; // so is every node to the right
+    }
+    if (bottom[node] > top[widget]) {
+      Widget first = widgets[node];
+      Widget second = widgets[widget];
+      overlaps.add(
+          first.getZIndex() < second.getZIndex()
+              ? Overlap.builder().setFirst(first).setSecond(second).build()
+              : Overlap.builder().setFirst(second).setSecond(first).build());
+    }
+    collect(rightChild[node], widget, overlaps);
+  }
+
+  private int insert(int root, int node) {
+    if (root == -1) {
+      return node;
+    }
+    if (before(node, root)) {
+      leftChild[root] = insert(leftChild[root], node);
+      if (priority[leftChild[root]] > priority[root]) {
+        return rotateRight(root);
+      }
+    } else {
+      rightChild[root] = insert(rightChild[root], node);
+      if (priority[rightChild[root]] > priority[root]) {
+        return rotateLeft(root);
+      }
+    }
+    update(root);
+    return root;
+  }
+
+  private int delete(int root, int node) {
+    if (root == node) {
+      return merge(leftChild[root], rightChild[root]);
+    }
+    if (before(node, root)) {
+      leftChild[root] = delete(leftChild[root], node);
+    } else {
+      rightChild[root] = delete(rightChild[root], node);
+    }
+    update(root);
+    return root;
+  }
+
+  private int merge(int left, int right) {
+    if (left == -1) {
+      return right;
+    }
+    if (right == -1) {
+      return left;
+    }
+    if (priority[left] > priority[right]) {
+      rightChild[left] = merge(rightChild[left], right);
+      update(left);
+      return left;
+    }
+    leftChild[right] = merge(left, leftChild[right]);
+    update(right);
+    return right;
+  }
+
+  private int rotateRight(int root) {
+    int pivot = leftChild[root];
+    leftChild[root] = rightChild[pivot];
+    rightChild[pivot] = root;
+    update(root);
+    update(pivot);
+    return pivot;
+  }
+
+  private int rotateLeft(int root) {
+    int pivot = rightChild[root];
+    rightChild[root] = leftChild[pivot];
+    leftChild[pivot] = root;
+    update(root);
+    update(pivot);
+    return pivot;
+  }
+
+  private boolean before(int first, int second) {
+    return top[first] < top[second] || (top[first] == top[second] && first < second);
+  }
+
+  private void update(int node) {
+    long max = bottom[node];
+    if (leftChild[node] != -1) {
+      max = Math.max(max, maxBottom[leftChild[node]]);
+    }
+    if (rightChild[node] != -1) {
+      max = Math.max(max, maxBottom[rightChild[node]]);
+    }
+    maxBottom[node] = max;
+  }
+}
@@ -0,0 +1,314 @@
+package org.mirowidgets.store;
+
+import com.google.common.base.Throwables;
+import org.mirowidgets.model.Change;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Mutation;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
+import org.mirowidgets.model.Widget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A read-only {@link WidgetStore} that follows another store by applying the changes committed to
+ * it, in order, on a background thread. Reads are served from the replica's own copy of the board,
+ * so they never wait on the followed store's lock, and several replicas can share the read load of
+ * a busy board. A replica lags behind the store it follows; {@link #awaitVersion(long, Duration)}
+ * bounds how stale a read may be. A replica that falls too far behind the store it follows skips
+ * the changes it has yet to apply and resets to the store's board instead.
+ *
+ * <p>Every method that would edit the board throws {@link UnsupportedOperationException}.
+ */
+public final class ReplicaWidgetStore implements WidgetStore, Closeable {
+  // the most changes applied under one hold of the replica's write lock
+  private static final int MAXIMUM_BATCH = 1024;
+  // the most changes waiting to be applied before they are replaced with a reset
+  private static final int MAXIMUM_PENDING = 16_384;
+  // queued after the changes read from a mutation log before it could not be read any further
+  private static final Change SOURCE_FAILED =
+      Change.builder().setVersion(-1).setMutation(Mutation.builder().build()).build();
+
+  private final InMemoryWidgetStore replica = new InMemoryWidgetStore();
+  private final BlockingQueue<Change> pending = new ArrayBlockingQueue<>(MAXIMUM_PENDING);
+  private final Object applied = new Object();
+  private final Thread applier;
+  private volatile long appliedVersion = -1;
+  private volatile Closeable source;
+  private volatile Exception failure;
+  private volatile IOException sourceFailure;
+
+  private ReplicaWidgetStore() {
+    applier = new Thread(this::applyChanges, "replica-applier");
+    applier.setDaemon(true);
+    applier.start();
+  }
+
+  static ReplicaWidgetStore following(InMemoryWidgetStore store) {
+    ReplicaWidgetStore replicaStore = new ReplicaWidgetStore();
+    Consumer<Change> follower = store.follow(replicaStore.pending);
+    replicaStore.source = () -> store.unfollow(follower);
+    return replicaStore;
+  }
+
+  static ReplicaWidgetStore tailing(Path log) throws IOException {
+    ReplicaWidgetStore replicaStore = new ReplicaWidgetStore();
+    try {
+      replicaStore.source =
+          MutationLog.tail(log, replicaStore.pending, replicaStore::sourceFailed);
+    } catch (IOException e) {
+      replicaStore.applier.interrupt();
+      throw e;
+    }
+    return replicaStore;
+  }
+
+  /**
+   * Waits until the replica has applied a version of the store it follows, so that reads reflect
+   * at least every change committed up to that version
+   *
+   * @param version a version read from the followed store, usually right after an edit
+   * @param timeout how long to wait at most
+   * @return true if the version was applied in time, false otherwise
+   * @throws InterruptedException if interrupted while waiting
+   * @throws UncheckedIOException if the replica stopped following a mutation log it could not read
+   * @throws RuntimeException the error that stopped the replica applying changes, if any
+   */
+  public boolean awaitVersion(long version, Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    synchronized (applied) {
+      while (appliedVersion < version) {
+        Exception stopped = failure;
+        if (stopped instanceof IOException) {
+          throw new UncheckedIOException((IOException) stopped);
+        } else if (stopped != null) {
+          throw (RuntimeException) stopped;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(applied, remaining);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the version of the followed store the replica has applied, which is -1 until the
+   * replica has first caught up with it
+   *
+   * @return the applied version
+   */
+  @Override
+  public long version() {
+    return appliedVersion;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long estimatedRetainedSize() {
+    return replica.estimatedRetainedSize();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> list() {
+    return replica.list();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void forEachOrdered(Consumer<? super Widget> action) {
+    replica.forEachOrdered(action);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> get(String id) {
+    return replica.get(id);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Overlap> overlaps() {
+    return replica.overlaps();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> overlaps(String id) {
+    return replica.overlaps(id);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance) {
+    return replica.snap(coordinates, dimensions, tolerance);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Snap> snap(Coordinates coordinates, int tolerance, String id) {
+    return replica.snap(coordinates, tolerance, id);
+  }
+
+  @Override
+  public Widget create(Coordinates coordinates, Dimensions dimensions, int zIndex) {
+    throw readOnly();
+  }
+
+  @Override
+  public Widget create(Coordinates coordinates, Dimensions dimensions) {
+    throw readOnly();
+  }
+
+  @Override
+  public void load(Stream<Widget> widgets) {
+    throw readOnly();
+  }
+
+  @Override
+  public Optional<Widget> update(Coordinates coordinates, String id) {
+    throw readOnly();
+  }
+
+  @Override
+  public Optional<Widget> update(Dimensions dimensions, String id) {
+    throw readOnly();
+  }
+
+  @Override
+  public Optional<Widget> update(int zIndex, String id) {
+    throw readOnly();
+  }
+
+  @Override
+  public Optional<Widget> update(
+      Dimensions dimensions, Coordinates coordinates, int zIndex, String id) {
+    throw readOnly();
+  }
+
+  @Override
+  public List<Widget> bringToFront(Collection<String> ids) {
+    throw readOnly();
+  }
+
+  @Override
+  public List<Widget> sendToBack(Collection<String> ids) {
+    throw readOnly();
+  }
+
+  @Override
+  public List<Widget> moveAbove(Collection<String> ids, String targetId) {
+    throw readOnly();
+  }
+
+  @Override
+  public List<Widget> moveBelow(Collection<String> ids, String targetId) {
+    throw readOnly();
+  }
+
+  @Override
+  public void remove(Widget widget) {
+    throw readOnly();
+  }
+
+  @Override
+  public void clear() {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean undo() {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean redo() {
+    throw readOnly();
+  }
+
+  /**
+   * Stops following the store. The replica keeps serving reads of the last version it applied
+   *
+   * @throws IOException the error that stopped the replica following a mutation log, if any
+   * @throws RuntimeException the error that stopped the replica applying changes, if any
+   */
+  @Override
+  public void close() throws IOException {
+    source.close();
+    applier.interrupt();
+    Exception stopped = failure;
+    if (stopped != null) {
+      Throwables.throwIfInstanceOf(stopped, IOException.class);
+      Throwables.throwIfUnchecked(stopped);
+    }
+  }
+
+  private void applyChanges() {
+    List<Change> batch = new ArrayList<>();
+    try {
+      while (true) {
+        batch.add(pending.take());
+        pending.drainTo(batch, MAXIMUM_BATCH - 1);
+        boolean sourceFailed = batch.get(batch.size() - 1) == SOURCE_FAILED;
+        if (sourceFailed) {
+          batch.remove(batch.size() - 1);
+        }
+        if (!batch.isEmpty()) {
+          replica.apply(batch);
+          synchronized (applied) {
+            appliedVersion = batch.get(batch.size() - 1).getVersion();
+            applied.notifyAll();
+          }
+        }
+        if (sourceFailed) {
+          fail(sourceFailure);
+          return;
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  /** Fails the replica once it has applied the changes read from its source before the error */
+  private void sourceFailed(IOException e) {
+    sourceFailure = e;
+    try {
+      pending.put(SOURCE_FAILED);
+    } catch (InterruptedException closed) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Records the error that stopped the replica and wakes everyone waiting for a version */
+  private void fail(Exception e) {
+    synchronized (applied) {
+      failure = e;
+      applied.notifyAll();
+    }
+  }
+
+  private static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("replicas are read-only");
+  }
+}
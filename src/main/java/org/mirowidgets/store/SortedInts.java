@@ -0,0 +1,252 @@
+package org.mirowidgets.store;
+
+import java.util.Arrays;
+
+/**
+ * A sorted multiset of ints in blocks of up to {@value #BLOCK} sorted values, for range lookups by
+ * binary search. Adding or removing a value shifts the rest of its block, and at most the block
+ * references when a block is split or merged, so it costs O(BLOCK + n / BLOCK) rather than O(n).
+ *
+ * <p>A block that falls below a quarter full is merged with or evens out with a neighbor, so that
+ * every block but a lone one stays at least a quarter full and the footprint follows the size.
+ */
+final class SortedInts {
+  static final long NONE = Long.MAX_VALUE;
+
+  private static final int BLOCK = 1024;
+  // a position before the first value, as previous() returns for the first one
+  private static final long START = -1;
+
+  private int[][] blocks = new int[4][];
+  private int[] blockSizes = new int[4];
+  private int blockCount;
+  private int size;
+
+  void add(int value) {
+    int block = Math.min(blockFor(value), blockCount - 1);
+    if (block < 0) {
+      insertBlock(0, new int[BLOCK], 0);
+      block = 0;
+    } else if (blockSizes[block] == BLOCK) {
+      split(block);
+      if (value > last(block)) {
+        block++;
+      }
+    }
+    int[] values = blocks[block];
+    int index = lowerBound(values, blockSizes[block], value);
+    System.arraycopy(values, index, values, index + 1, blockSizes[block] - index);
+    values[index] = value;
+    blockSizes[block]++;
+    size++;
+  }
+
+  void remove(int value) {
+    int block = blockFor(value);
+    int index = block == blockCount ? 0 : lowerBound(blocks[block], blockSizes[block], value);
+    if (block == blockCount || blocks[block][index] != value) {
+      throw new IllegalStateException("missing value " + value);
+    }
+    int[] values = blocks[block];
+    System.arraycopy(values, index + 1, values, index, blockSizes[block] - index - 1);
+    blockSizes[block]--;
+    size--;
+    if (blockSizes[block] == 0) {
+      removeBlock(block);
+    } else if (blockSizes[block] < BLOCK / 4 && blockCount > 1) {
+      rebalance(block);
+    }
+  }
+
+  void replace(int from, int to) {
+    if (from != to) {
+      remove(from);
+      add(to);
+    }
+  }
+
+  /** replaces the contents with the given values, which are sorted in place */
+  void reset(int[] values) {
+    Arrays.parallelSort(values);
+    int count = (values.length + BLOCK - 1) / BLOCK;
+    blocks = new int[Math.max(4, count)][];
+    blockSizes = new int[blocks.length];
+    blockCount = count;
+    size = values.length;
+    for (int block = 0; block < count; block++) {
+      int from = block * BLOCK;
+      blockSizes[block] = Math.min(BLOCK, values.length - from);
+      blocks[block] = Arrays.copyOfRange(values, from, from + BLOCK);
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** @return the estimated heap held by the blocks, including their spare capacity */
+  long bytes() {
+    return Footprint.ARRAY_HEADER
+        + Footprint.REFERENCE * blocks.length
+        + Footprint.ARRAY_HEADER
+        + Footprint.INT * blockSizes.length
+        + blockCount * (Footprint.ARRAY_HEADER + Footprint.INT * BLOCK);
+  }
+
+  /**
+   * Finds the value nearest to a probe, ignoring one occurrence of an excluded value
+   *
+   * @return the nearest value within the tolerance, or {@link #NONE}
+   */
+  long nearest(int probe, int tolerance, boolean excluding, int excluded) {
+    int block = blockFor(probe);
+    int index = block == blockCount ? 0 : lowerBound(blocks[block], blockSizes[block], probe);
+    long above = position(block, index);
+    long below = previous(above);
+    if (excluding && isValue(above) && value(above) == excluded) {
+      above = next(above);
+    }
+    if (excluding && below != START && value(below) == excluded) {
+      below = previous(below);
+    }
+    long nearest = NONE;
+    long distance = (long) tolerance + 1;
+    if (isValue(above) && (long) value(above) - probe < distance) {
+      nearest = value(above);
+      distance = (long) value(above) - probe;
+    }
+    if (below != START && (long) probe - value(below) < distance) {
+      nearest = value(below);
+    }
+    return nearest;
+  }
+
+  /** the first block whose last value is not less than the given one, or blockCount if none is */
+  private int blockFor(int value) {
+    int low = 0;
+    int high = blockCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (last(middle) < value) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int last(int block) {
+    return blocks[block][blockSizes[block] - 1];
+  }
+
+  /** moves the upper half of a full block into a new block after it */
+  private void split(int block) {
+    int[] upper = new int[BLOCK];
+    System.arraycopy(blocks[block], BLOCK / 2, upper, 0, BLOCK - BLOCK / 2);
+    blockSizes[block] = BLOCK / 2;
+    insertBlock(block + 1, upper, BLOCK - BLOCK / 2);
+  }
+
+  /**
+   * merges an underfull block into its smaller neighbor or, if that would leave too little room to
+   * grow before the next split, moves values from the neighbor so both hold half
+   */
+  private void rebalance(int block) {
+    int neighbor;
+    if (block == 0) {
+      neighbor = 1;
+    } else if (block == blockCount - 1) {
+      neighbor = block - 1;
+    } else {
+      neighbor = blockSizes[block - 1] <= blockSizes[block + 1] ? block - 1 : block + 1;
+    }
+    int left = Math.min(block, neighbor);
+    int right = left + 1;
+    int leftSize = blockSizes[left];
+    int rightSize = blockSizes[right];
+    int total = leftSize + rightSize;
+    if (total <= BLOCK * 3 / 4) {
+      System.arraycopy(blocks[right], 0, blocks[left], leftSize, rightSize);
+      blockSizes[left] = total;
+      removeBlock(right);
+      return;
+    }
+    int half = total / 2;
+    if (leftSize > half) {
+      // moves the top of the left block to the bottom of the right one
+      int moved = leftSize - half;
+      System.arraycopy(blocks[right], 0, blocks[right], moved, rightSize);
+      System.arraycopy(blocks[left], half, blocks[right], 0, moved);
+    } else {
+      // moves the bottom of the right block to the top of the left one
+      int moved = half - leftSize;
+      System.arraycopy(blocks[right], 0, blocks[left], leftSize, moved);
+      System.arraycopy(blocks[right], moved, blocks[right], 0, rightSize - moved);
+    }
+    blockSizes[left] = half;
+    blockSizes[right] = total - half;
+  }
+
+  private void insertBlock(int block, int[] values, int blockSize) {
+    if (blockCount == blocks.length) {
+      blocks = Arrays.copyOf(blocks, blockCount * 2);
+      blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+    }
+    System.arraycopy(blocks, block, blocks, block + 1, blockCount - block);
+    System.arraycopy(blockSizes, block, blockSizes, block + 1, blockCount - block);
+    blocks[block] = values;
+    blockSizes[block] = blockSize;
+    blockCount++;
+  }
+
+  private void removeBlock(int block) {
+    System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+    System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+    blockCount--;
+    blocks[blockCount] = null;
+  }
+
+  // positions pack a block and an index into it, which is past the end for no value
+  private static long position(int block, int index) {
+    return (long) block << 32 | index;
+  }
+
+  private boolean isValue(long position) {
+    return (int) (position >>> 32) < blockCount;
+  }
+
+  private int value(long position) {
+    return blocks[(int) (position >>> 32)][(int) position];
+  }
+
+  private long next(long position) {
+    int block = (int) (position >>> 32);
+    int index = (int) position + 1;
+    return index < blockSizes[block] ? position(block, index) : position(block + 1, 0);
+  }
+
+  private long previous(long position) {
+    int block = (int) (position >>> 32);
+    int index = (int) position;
+    if (index > 0) {
+      return position(block, index - 1);
+    }
+    return block == 0 ? START : position(block - 1, blockSizes[block - 1] - 1);
+  }
+
+  /** the index of the first value in a block not less than the given one */
+  private static int lowerBound(int[] values, int size, int value) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (values[middle] < value) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
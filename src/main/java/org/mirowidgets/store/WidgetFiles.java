@@ -0,0 +1,175 @@
+package org.mirowidgets.store;
+
+import de.huxhorn.sulky.ulid.ULID;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Reads and writes boards as compact files of fixed-size widget records, so that a file can be
+ * decoded in parallel and loaded into a {@link WidgetStore} in a single step.
+ *
+ * <p>A file is an 8 byte header followed by one {@value #RECORD_SIZE} byte record per widget, in
+ * ascending Z-index order, its id stored as the 128 bit ULID every widget has.
+ */
+public final class WidgetFiles {
+
+  static final int MAGIC = 0x4D574253;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 8;
+  static final int RECORD_SIZE = 48;
+
+  private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+
+  /**
+   * Writes every widget in the store to a file, in ascending Z-index order. Widgets are streamed
+   * from the store as they are written, under its read lock, so writers to the store are blocked
+   * for the whole export, disk writes included. The file is written beside the target and moved
+   * into place once complete, so a failed export leaves any existing file untouched
+   *
+   * @param store the store to export
+   * @param path the file to write, replaced if it exists
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(WidgetStore store, Path path) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        store.forEachOrdered(
+            widget -> {
+              try {
+                encode(widget, out);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Replaces the contents of the store with the widgets in a file. Records are decoded in parallel
+   * and handed to {@link WidgetStore#load(Stream)}
+   *
+   * @param path the file to read
+   * @param store the store to load into
+   * @throws IOException if the file cannot be read or is not a widget file
+   */
+  public static void read(Path path, WidgetStore store) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      store.load(decode(channel));
+    }
+  }
+
+  /**
+   * Memory-maps a widget file and returns a parallel stream decoding its records. The stream must
+   * be consumed before the channel is closed
+   */
+  static Stream<Widget> decode(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size < HEADER_SIZE || (size - HEADER_SIZE) % RECORD_SIZE != 0) {
+      throw new IOException("not a widget file");
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        throw new IOException("not a widget file");
+      }
+    }
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      throw new IOException("not a widget file");
+    }
+
+    long count = (size - HEADER_SIZE) / RECORD_SIZE;
+    if (count > Integer.MAX_VALUE) {
+      throw new IOException("too many widgets: " + count);
+    }
+    MappedByteBuffer[] segments =
+        new MappedByteBuffer[(int) ((count + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT)];
+    for (int i = 0; i < segments.length; i++) {
+      long first = (long) i * RECORDS_PER_SEGMENT;
+      long records = Math.min(RECORDS_PER_SEGMENT, count - first);
+      segments[i] =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY,
+              HEADER_SIZE + first * RECORD_SIZE,
+              records * RECORD_SIZE);
+    }
+    return IntStream.range(0, (int) count)
+        .parallel()
+        .mapToObj(
+            i ->
+                decode(
+                    segments[i / RECORDS_PER_SEGMENT], (i % RECORDS_PER_SEGMENT) * RECORD_SIZE));
+  }
+
+  static void encode(Widget widget, DataOutputStream out) throws IOException {
+    ULID.Value id = ULID.parseULID(widget.getId());
+    LocalDateTime lastModified = widget.getLastModified();
+    out.writeLong(id.getMostSignificantBits());
+    out.writeLong(id.getLeastSignificantBits());
+    out.writeInt(widget.getCoordinates().getX());
+    out.writeInt(widget.getCoordinates().getY());
+    out.writeInt(widget.getDimensions().getWidth());
+    out.writeInt(widget.getDimensions().getHeight());
+    out.writeInt(widget.getZIndex());
+    out.writeLong(lastModified.toEpochSecond(ZoneOffset.UTC));
+    out.writeInt(lastModified.getNano());
+  }
+
+  /** Decodes the record at an offset, using absolute reads only so that it is thread safe */
+  static Widget decode(ByteBuffer buffer, int offset) {
+    return Widget.builder()
+        .setId(new ULID.Value(buffer.getLong(offset), buffer.getLong(offset + 8)).toString())
+        .setCoordinates(
+            Coordinates.builder()
+                .setX(buffer.getInt(offset + 16))
+                .setY(buffer.getInt(offset + 20))
+                .build())
+        .setDimensions(
+            Dimensions.builder()
+                .setWidth(buffer.getInt(offset + 24))
+                .setHeight(buffer.getInt(offset + 28))
+                .build())
+        .setZIndex(buffer.getInt(offset + 32))
+        .setLastModified(
+            LocalDateTime.ofEpochSecond(
+                buffer.getLong(offset + 36), buffer.getInt(offset + 44), ZoneOffset.UTC))
+        .build();
+  }
+
+  private WidgetFiles() {
+    throw new IllegalAccessError();
+  }
+}
@@ -2,10 +2,15 @@ package org.mirowidgets.store;
 
 import org.mirowidgets.model.Coordinates;
 import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
 import org.mirowidgets.model.Widget;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface WidgetStore {
 
@@ -36,6 +41,23 @@ public interface WidgetStore {
    */
   Widget create(Coordinates coordinates, Dimensions dimensions);
 
+  /**
+   * Replaces the contents of the store with the given widgets, in a single step. Widgets sharing a
+   * Z-index keep their encounter order and are moved up to the next free Z-index
+   *
+   * @param widgets the widgets to load, in any order; may be a parallel stream
+   * @throws IllegalArgumentException if two widgets share an id
+   */
+  void load(Stream<Widget> widgets);
+
+  /**
+   * Performs the given action on every widget, in ascending Z-index order, without copying the
+   * store. The action must not modify the store
+   *
+   * @param action the action to perform on each {@link Widget}
+   */
+  void forEachOrdered(Consumer<? super Widget> action);
+
   /**
    * Attempts to find a widget by its id
    *
@@ -44,6 +66,45 @@ public interface WidgetStore {
    */
   Optional<Widget> get(String id);
 
+  /**
+   * Finds every pair of widgets whose rectangles intersect. Widgets that only share an edge do not
+   * overlap
+   *
+   * @return the overlapping pairs, in no particular order
+   */
+  List<Overlap> overlaps();
+
+  /**
+   * Finds the widgets whose rectangles intersect that of a given widget
+   *
+   * @param id the widget's id
+   * @return the overlapping widgets sorted by Z-index, ascending, or an empty list if the widget
+   *     does not exist
+   */
+  List<Widget> overlaps(String id);
+
+  /**
+   * Snaps a widget being placed to the nearest left, center or right of another widget within a
+   * tolerance on the x axis, and likewise to the nearest top, center or bottom on the y axis
+   *
+   * @param coordinates where the widget is being placed
+   * @param dimensions the widget's dimensions
+   * @param tolerance the furthest an edge may be moved to snap, on each axis
+   * @return the snapped coordinates and the guides snapped to
+   */
+  Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance);
+
+  /**
+   * Snaps a widget being dragged, as {@link #snap(Coordinates, Dimensions, int)} does, ignoring the
+   * widget's own edges. Looks up the widget by id and if found, snaps it at the given coordinates
+   *
+   * @param coordinates where the widget is being dragged to
+   * @param tolerance the furthest an edge may be moved to snap, on each axis
+   * @param id the id of the widget being dragged
+   * @return if it exists, the snapped coordinates and guides, otherwise {@link Optional#empty()}
+   */
+  Optional<Snap> snap(Coordinates coordinates, int tolerance, String id);
+
   /**
    * Updates the coordinates of a {@link Widget}. Looks up the widget by id and if found, updates
    * the coordinates and returns the widget
@@ -86,6 +147,48 @@ public interface WidgetStore {
    */
   Optional<Widget> update(Dimensions dimensions, Coordinates coordinates, int zIndex, String id);
 
+  /**
+   * Moves a selection of widgets above every other widget, keeping their relative order. Their
+   * Z-indexes become consecutive, starting just above the highest unselected Z-index. Costs
+   * O(k log n) for k selected widgets
+   *
+   * @param ids the ids of the selected widgets; unknown ids are ignored
+   * @return the moved widgets, sorted by Z-index, ascending
+   */
+  List<Widget> bringToFront(Collection<String> ids);
+
+  /**
+   * Moves a selection of widgets below every other widget, keeping their relative order. Their
+   * Z-indexes become consecutive, ending just below the lowest unselected Z-index. Costs O(k log n)
+   * for k selected widgets
+   *
+   * @param ids the ids of the selected widgets; unknown ids are ignored
+   * @return the moved widgets, sorted by Z-index, ascending
+   */
+  List<Widget> sendToBack(Collection<String> ids);
+
+  /**
+   * Moves a selection of widgets directly above a target widget, keeping their relative order.
+   * Widgets in the way are shifted up, as when creating a widget at a taken Z-index
+   *
+   * @param ids the ids of the selected widgets; unknown ids are ignored
+   * @param targetId the id of the widget to move above, which must not be selected
+   * @return the moved widgets sorted by Z-index, ascending, or an empty list if the target does not
+   *     exist
+   */
+  List<Widget> moveAbove(Collection<String> ids, String targetId);
+
+  /**
+   * Moves a selection of widgets directly below a target widget, keeping their relative order. The
+   * target and widgets in the way are shifted up, as when creating a widget at a taken Z-index
+   *
+   * @param ids the ids of the selected widgets; unknown ids are ignored
+   * @param targetId the id of the widget to move below, which must not be selected
+   * @return the moved widgets sorted by Z-index, ascending, or an empty list if the target does not
+   *     exist
+   */
+  List<Widget> moveBelow(Collection<String> ids, String targetId);
+
   /**
    * Removes a widget
    *
@@ -95,4 +198,40 @@ public interface WidgetStore {
 
   /** Removes all widgets */
   void clear();
+
+  /**
+   * Returns the store's version, which goes up by one with every change committed to it, whether
+   * an edit, an undo or redo, or a load. A replica that has applied a version reads the same board
+   * as the store did at that version
+   *
+   * @return the version of the store's current board
+   */
+  long version();
+
+  /**
+   * Estimates the heap held by the store: its widgets with their ids, timestamps and geometry, the
+   * Z-index and id maps, the edge index and the undo history. The estimate assumes a 64-bit JVM
+   * with compressed references
+   *
+   * @return the estimated retained size in bytes
+   */
+  long estimatedRetainedSize();
+
+  /**
+   * Undoes the latest edit still in the store's history, restoring every widget it changed,
+   * including those it shifted to make room. Loading a board starts a new history, as does
+   * clearing a board too large for the history's memory budget, and the oldest edits are
+   * forgotten once the history grows past it
+   *
+   * @return true if an edit was undone, false if there was none to undo
+   */
+  boolean undo();
+
+  /**
+   * Redoes the latest undone edit. Any new edit made after undoing discards the edits that could
+   * be redone
+   *
+   * @return true if an edit was redone, false if there was none to redo
+   */
+  boolean redo();
 }
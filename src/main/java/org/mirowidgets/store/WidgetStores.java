@@ -1,5 +1,11 @@
 package org.mirowidgets.store;
 
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
 public final class WidgetStores {
 
   private static final WidgetStore IN_MEMORY_WIDGET_STORE = new InMemoryWidgetStore();
@@ -8,6 +14,69 @@ public final class WidgetStores {
     return IN_MEMORY_WIDGET_STORE;
   }
 
+  /**
+   * Creates a new in-memory store that shares equal {@link org.mirowidgets.model.Coordinates} and
+   * {@link org.mirowidgets.model.Dimensions} instances between its widgets, to save heap on boards
+   * full of repeated sizes and positions. Callers can also avoid allocating them on the update path
+   * by creating them through {@link org.mirowidgets.model.Geometry}
+   *
+   * @return a new {@link WidgetStore}
+   */
+  public static WidgetStore internedInMemoryStore() {
+    return new InMemoryWidgetStore(true);
+  }
+
+  /**
+   * Creates a {@link BoardStore} that pages idle boards out to files in a directory
+   *
+   * @param directory an existing directory to hold paged out boards
+   * @param maximumBoards the most boards to hold on the heap at any time
+   * @param idleTimeout how long a board may go unused before it is paged out
+   * @return a new {@link BoardStore}
+   */
+  public static BoardStore boardStore(Path directory, int maximumBoards, Duration idleTimeout) {
+    return new BoardStore(directory, maximumBoards, idleTimeout);
+  }
+
+  /**
+   * Creates a read-only replica that follows an in-memory store, applying its changes in the
+   * background
+   *
+   * @param store the store to follow, created by this class's in-memory factories
+   * @return a new {@link ReplicaWidgetStore}, to be closed when no longer needed
+   */
+  public static ReplicaWidgetStore replicaOf(WidgetStore store) {
+    Preconditions.checkArgument(
+        store instanceof InMemoryWidgetStore, "only in-memory stores can be followed");
+    return ReplicaWidgetStore.following((InMemoryWidgetStore) store);
+  }
+
+  /**
+   * Creates a read-only replica that follows a store through the mutation log it writes, which
+   * may be written by another process
+   *
+   * @param log a file written by a {@link MutationLog}
+   * @return a new {@link ReplicaWidgetStore}, to be closed when no longer needed
+   * @throws IOException if the log cannot be opened
+   */
+  public static ReplicaWidgetStore replicaOf(Path log) throws IOException {
+    return ReplicaWidgetStore.tailing(log);
+  }
+
+  /**
+   * Starts logging the changes committed to an in-memory store, for replicas to follow
+   *
+   * @param store the store to log, created by this class's in-memory factories
+   * @param log the file to write, replaced if it exists
+   * @return a new {@link MutationLog}, to be closed to stop logging
+   * @throws IOException if the log cannot be created
+   */
+  public static MutationLog mutationLog(WidgetStore store, Path log) throws IOException {
+    Preconditions.checkArgument(
+        store instanceof InMemoryWidgetStore, "only in-memory stores can be logged");
+    return new MutationLog((InMemoryWidgetStore) store, log);
+  }
+
   private WidgetStores() {
     throw new IllegalAccessError();
   }
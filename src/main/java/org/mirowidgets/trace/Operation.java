@@ -0,0 +1,56 @@
+package org.mirowidgets.trace;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/** The {@link org.mirowidgets.store.WidgetStore} operations a trace records, by their codes */
+enum Operation {
+  LIST,
+  ITERATE,
+  CREATE,
+  CREATE_AT,
+  LOAD,
+  GET,
+  MOVE,
+  RESIZE,
+  REORDER,
+  UPDATE,
+  REMOVE,
+  CLEAR,
+  OVERLAPS,
+  OVERLAPS_OF,
+  SNAP,
+  SNAP_OF,
+  BRING_TO_FRONT,
+  SEND_TO_BACK,
+  MOVE_ABOVE,
+  MOVE_BELOW,
+  UNDO,
+  REDO;
+
+  private static final Operation[] VALUES = values();
+  private static final Set<Operation> BARRIERS =
+      EnumSet.of(
+          LOAD, CLEAR, BRING_TO_FRONT, SEND_TO_BACK, MOVE_ABOVE, MOVE_BELOW, UNDO, REDO);
+
+  /**
+   * Whether the operation changes the whole board or several widgets depending on their state, so
+   * that it must run after every operation recorded before it, and before every one recorded after
+   * it. Reads of the whole board are not barriers: they may see any interleaving of the edits
+   * around them, as they would on a live store
+   */
+  boolean isBarrier() {
+    return BARRIERS.contains(this);
+  }
+
+  byte code() {
+    return (byte) ordinal();
+  }
+
+  static Operation fromCode(byte code) {
+    if (code < 0 || code >= VALUES.length) {
+      throw new IllegalArgumentException("unknown operation " + code);
+    }
+    return VALUES[code];
+  }
+}
@@ -0,0 +1,32 @@
+package org.mirowidgets.trace;
+
+import org.immutables.value.Value;
+import org.mirowidgets.value.Immutables;
+
+import java.time.Duration;
+
+@Value.Immutable
+@Immutables.DefaultStyle
+abstract class ReplayReportModel {
+
+  abstract long getOperations();
+
+  abstract Duration getElapsed();
+
+  abstract Duration getP50();
+
+  abstract Duration getP90();
+
+  abstract Duration getP99();
+
+  abstract Duration getP999();
+
+  abstract Duration getMax();
+
+  /** operations per second over the whole replay */
+  @Value.Derived
+  double getThroughput() {
+    long nanos = getElapsed().toNanos();
+    return nanos == 0 ? 0 : getOperations() * 1e9 / nanos;
+  }
+}
@@ -0,0 +1,78 @@
+package org.mirowidgets.trace;
+
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+
+/**
+ * The trace file layout. A trace is a header followed by one record per operation: the operation
+ * code, the nanoseconds since recording started and the operation's arguments. Widget ids are
+ * those seen by the recorded store, and are mapped to the replaying store's ids on replay.
+ */
+final class TraceFormat {
+  static final int MAGIC = 0x4D575452;
+  static final int VERSION = 1;
+
+  static void writeWidget(Widget widget, DataOutput out) throws IOException {
+    out.writeUTF(widget.getId());
+    writeCoordinates(widget.getCoordinates(), out);
+    writeDimensions(widget.getDimensions(), out);
+    out.writeInt(widget.getZIndex());
+    out.writeLong(widget.getLastModified().toEpochSecond(ZoneOffset.UTC));
+    out.writeInt(widget.getLastModified().getNano());
+  }
+
+  static Widget readWidget(DataInput in) throws IOException {
+    return Widget.builder()
+        .setId(in.readUTF())
+        .setCoordinates(readCoordinates(in))
+        .setDimensions(readDimensions(in))
+        .setZIndex(in.readInt())
+        .setLastModified(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC))
+        .build();
+  }
+
+  static void writeIds(Collection<String> ids, DataOutput out) throws IOException {
+    out.writeInt(ids.size());
+    for (String id : ids) {
+      out.writeUTF(id);
+    }
+  }
+
+  static String[] readIds(DataInput in) throws IOException {
+    String[] ids = new String[in.readInt()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = in.readUTF();
+    }
+    return ids;
+  }
+
+  static void writeCoordinates(Coordinates coordinates, DataOutput out) throws IOException {
+    out.writeInt(coordinates.getX());
+    out.writeInt(coordinates.getY());
+  }
+
+  static Coordinates readCoordinates(DataInput in) throws IOException {
+    return Coordinates.builder().setX(in.readInt()).setY(in.readInt()).build();
+  }
+
+  static void writeDimensions(Dimensions dimensions, DataOutput out) throws IOException {
+    out.writeInt(dimensions.getWidth());
+    out.writeInt(dimensions.getHeight());
+  }
+
+  static Dimensions readDimensions(DataInput in) throws IOException {
+    return Dimensions.builder().setWidth(in.readInt()).setHeight(in.readInt()).build();
+  }
+
+  private TraceFormat() {
+    throw new IllegalAccessError();
+  }
+}
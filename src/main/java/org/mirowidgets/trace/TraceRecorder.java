@@ -0,0 +1,407 @@
+package org.mirowidgets.trace;
+
+import com.google.common.util.concurrent.Striped;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.WidgetStore;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A {@link WidgetStore} that passes every operation on to another store and records it, with the
+ * time it was made at, to a trace file that {@link TraceReplayer} can play back. Operations that
+ * fail are not recorded. Recording errors do not fail the store's operations; the first one is
+ * thrown by {@link #close()} instead.
+ *
+ * <p>Operations are recorded in the order the store ran them: operations on the same widget are
+ * serialized while they run and are recorded, and {@link Operation#isBarrier() barriers}, the
+ * edits of the whole board or of several widgets, run and are recorded alone, so the recorder
+ * adds contention of its own to the traffic it records. Reads of the whole board run alongside
+ * everything but barriers.
+ */
+public final class TraceRecorder implements WidgetStore, Closeable {
+  private final WidgetStore delegate;
+  private final DataOutputStream out;
+  private final long startNanos = System.nanoTime();
+  private final ReadWriteLock ordering = new ReentrantReadWriteLock();
+  private final Striped<Lock> widgetOrdering = Striped.lock(64);
+  private IOException failure;
+
+  /**
+   * Starts recording operations on a store
+   *
+   * @param delegate the store to record
+   * @param trace the trace file to write, replaced if it exists
+   * @throws IOException if the trace file cannot be created
+   */
+  public TraceRecorder(WidgetStore delegate, Path trace) throws IOException {
+    this.delegate = delegate;
+    this.out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(trace), 1 << 16));
+    out.writeInt(TraceFormat.MAGIC);
+    out.writeInt(TraceFormat.VERSION);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> list() {
+    return record(Operation.LIST, null, delegate::list, widgets -> out -> {});
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Widget create(Coordinates coordinates, Dimensions dimensions, int zIndex) {
+    return record(
+        Operation.CREATE_AT,
+        null,
+        () -> delegate.create(coordinates, dimensions, zIndex),
+        widget ->
+            out -> {
+              TraceFormat.writeCoordinates(coordinates, out);
+              TraceFormat.writeDimensions(dimensions, out);
+              out.writeInt(zIndex);
+              out.writeUTF(widget.getId());
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Widget create(Coordinates coordinates, Dimensions dimensions) {
+    return record(
+        Operation.CREATE,
+        null,
+        () -> delegate.create(coordinates, dimensions),
+        widget ->
+            out -> {
+              TraceFormat.writeCoordinates(coordinates, out);
+              TraceFormat.writeDimensions(dimensions, out);
+              out.writeUTF(widget.getId());
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void load(Stream<Widget> widgets) {
+    Widget[] loaded = widgets.toArray(Widget[]::new);
+    record(
+        Operation.LOAD,
+        null,
+        () -> {
+          delegate.load(Stream.of(loaded));
+          return null;
+        },
+        ignored ->
+            out -> {
+              out.writeInt(loaded.length);
+              for (Widget widget : loaded) {
+                TraceFormat.writeWidget(widget, out);
+              }
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void forEachOrdered(Consumer<? super Widget> action) {
+    record(
+        Operation.ITERATE,
+        null,
+        () -> {
+          delegate.forEachOrdered(action);
+          return null;
+        },
+        ignored -> out -> {});
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> get(String id) {
+    return record(Operation.GET, id, () -> delegate.get(id), widget -> out -> out.writeUTF(id));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Overlap> overlaps() {
+    return record(Operation.OVERLAPS, null, delegate::overlaps, overlaps -> out -> {});
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> overlaps(String id) {
+    return record(
+        Operation.OVERLAPS_OF, id, () -> delegate.overlaps(id), overlaps -> out -> out.writeUTF(id));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Snap snap(Coordinates coordinates, Dimensions dimensions, int tolerance) {
+    return record(
+        Operation.SNAP,
+        null,
+        () -> delegate.snap(coordinates, dimensions, tolerance),
+        snap ->
+            out -> {
+              TraceFormat.writeCoordinates(coordinates, out);
+              TraceFormat.writeDimensions(dimensions, out);
+              out.writeInt(tolerance);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Snap> snap(Coordinates coordinates, int tolerance, String id) {
+    return record(
+        Operation.SNAP_OF,
+        id,
+        () -> delegate.snap(coordinates, tolerance, id),
+        snap ->
+            out -> {
+              TraceFormat.writeCoordinates(coordinates, out);
+              out.writeInt(tolerance);
+              out.writeUTF(id);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> update(Coordinates coordinates, String id) {
+    return record(
+        Operation.MOVE,
+        id,
+        () -> delegate.update(coordinates, id),
+        widget ->
+            out -> {
+              TraceFormat.writeCoordinates(coordinates, out);
+              out.writeUTF(id);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> update(Dimensions dimensions, String id) {
+    return record(
+        Operation.RESIZE,
+        id,
+        () -> delegate.update(dimensions, id),
+        widget ->
+            out -> {
+              TraceFormat.writeDimensions(dimensions, out);
+              out.writeUTF(id);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> update(int zIndex, String id) {
+    return record(
+        Operation.REORDER,
+        id,
+        () -> delegate.update(zIndex, id),
+        widget ->
+            out -> {
+              out.writeInt(zIndex);
+              out.writeUTF(id);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Optional<Widget> update(
+      Dimensions dimensions, Coordinates coordinates, int zIndex, String id) {
+    return record(
+        Operation.UPDATE,
+        id,
+        () -> delegate.update(dimensions, coordinates, zIndex, id),
+        widget ->
+            out -> {
+              TraceFormat.writeDimensions(dimensions, out);
+              TraceFormat.writeCoordinates(coordinates, out);
+              out.writeInt(zIndex);
+              out.writeUTF(id);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> bringToFront(Collection<String> ids) {
+    return record(
+        Operation.BRING_TO_FRONT,
+        null,
+        () -> delegate.bringToFront(ids),
+        widgets -> out -> TraceFormat.writeIds(ids, out));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> sendToBack(Collection<String> ids) {
+    return record(
+        Operation.SEND_TO_BACK,
+        null,
+        () -> delegate.sendToBack(ids),
+        widgets -> out -> TraceFormat.writeIds(ids, out));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> moveAbove(Collection<String> ids, String targetId) {
+    return record(
+        Operation.MOVE_ABOVE,
+        null,
+        () -> delegate.moveAbove(ids, targetId),
+        widgets ->
+            out -> {
+              TraceFormat.writeIds(ids, out);
+              out.writeUTF(targetId);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Widget> moveBelow(Collection<String> ids, String targetId) {
+    return record(
+        Operation.MOVE_BELOW,
+        null,
+        () -> delegate.moveBelow(ids, targetId),
+        widgets ->
+            out -> {
+              TraceFormat.writeIds(ids, out);
+              out.writeUTF(targetId);
+            });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void remove(Widget widget) {
+    record(
+        Operation.REMOVE,
+        widget.getId(),
+        () -> {
+          delegate.remove(widget);
+          return null;
+        },
+        ignored -> out -> out.writeUTF(widget.getId()));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear() {
+    record(
+        Operation.CLEAR,
+        null,
+        () -> {
+          delegate.clear();
+          return null;
+        },
+        ignored -> out -> {});
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long estimatedRetainedSize() {
+    return delegate.estimatedRetainedSize();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long version() {
+    // not recorded, as a version is only meaningful to the store it was read from
+    return delegate.version();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean undo() {
+    return record(Operation.UNDO, null, delegate::undo, undone -> out -> {});
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean redo() {
+    return record(Operation.REDO, null, delegate::redo, redone -> out -> {});
+  }
+
+  /**
+   * Stops recording and closes the trace file
+   *
+   * @throws IOException if any operation could not be recorded, or the file cannot be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      out.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Runs an operation on the store and records it once it succeeds. The operation is recorded
+   * before any other operation on the same widget, or any barrier, can run
+   *
+   * @param id the widget the operation is on, or null
+   * @param arguments the operation's arguments to record, given its result
+   */
+  private <T> T record(
+      Operation operation,
+      String id,
+      Supplier<T> call,
+      Function<? super T, Arguments> arguments) {
+    Lock lock = operation.isBarrier() ? ordering.writeLock() : ordering.readLock();
+    Lock widgetLock = id == null ? null : widgetOrdering.get(id);
+    lock.lock();
+    if (widgetLock != null) {
+      widgetLock.lock();
+    }
+    try {
+      long offset = System.nanoTime() - startNanos;
+      T result = call.get();
+      write(operation, offset, arguments.apply(result));
+      return result;
+    } finally {
+      if (widgetLock != null) {
+        widgetLock.unlock();
+      }
+      lock.unlock();
+    }
+  }
+
+  private synchronized void write(Operation operation, long offset, Arguments arguments) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      out.writeByte(operation.code());
+      out.writeLong(offset);
+      arguments.write(out);
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Arguments {
+    void write(DataOutputStream out) throws IOException;
+  }
+}
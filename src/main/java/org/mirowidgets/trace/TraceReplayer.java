@@ -0,0 +1,431 @@
+package org.mirowidgets.trace;
+
+import com.google.common.base.Preconditions;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Plays a trace written by {@link TraceRecorder} against any {@link WidgetStore}, and reports the
+ * throughput and latency percentiles it achieved.
+ *
+ * <p>Operations are spread across worker threads by widget id, so each widget sees its operations
+ * in recorded order, while operations on different widgets may run concurrently. Reads of the
+ * whole board, such as {@link WidgetStore#list()}, go to the workers in turn. Edits of the whole
+ * board or of several widgets, such as {@link WidgetStore#clear()} or {@link
+ * WidgetStore#bringToFront(java.util.Collection)}, are barriers: every worker finishes the
+ * operations recorded before one, then it runs alone. The operations before an undo or redo run
+ * in recorded order, as they decide which edit it reverts. When replaying at a given speed,
+ * operations are issued at their recorded times and latency is measured from the time an
+ * operation was due, so that a slow store is not hidden by issuing fewer operations.
+ */
+public final class TraceReplayer {
+
+  /**
+   * Replays a trace into a store
+   *
+   * @param trace the trace file
+   * @param store the store to replay into
+   * @param speed how fast to replay relative to the recording, e.g. 2 for twice as fast, or 0 to
+   *     issue operations as fast as possible
+   * @param concurrency the number of worker threads
+   * @return the throughput and latencies measured
+   * @throws IOException if the trace cannot be read
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public static ReplayReport replay(Path trace, WidgetStore store, double speed, int concurrency)
+      throws IOException, InterruptedException {
+    Preconditions.checkArgument(speed >= 0, "speed must not be negative");
+    Preconditions.checkArgument(concurrency > 0, "concurrency must be greater than zero");
+
+    // each worker's steps, in segments that all workers finish before any starts the next
+    List<List<List<Step>>> partitions = new ArrayList<>(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      partitions.add(new ArrayList<>());
+    }
+    List<Step> segment = new ArrayList<>();
+    for (Step step : read(trace)) {
+      if (step.operation.isBarrier()) {
+        // which edit an undo or redo reverts depends on the order of the edits before it
+        boolean ordered = step.operation == Operation.UNDO || step.operation == Operation.REDO;
+        addSegment(partitions, segment, ordered);
+        // a barrier is a segment of its own, run by the first worker while the others wait
+        addSegment(partitions, List.of(step), true);
+        segment = new ArrayList<>();
+      } else {
+        segment.add(step);
+      }
+    }
+    addSegment(partitions, segment, false);
+
+    Map<String, String> ids = new ConcurrentHashMap<>();
+    CountDownLatch start = new CountDownLatch(1);
+    Phaser segmentDone = new Phaser(concurrency);
+    long[] startNanos = new long[1];
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    try {
+      List<Future<long[]>> latencies = new ArrayList<>(concurrency);
+      for (List<List<Step>> segments : partitions) {
+        latencies.add(
+            workers.submit(
+                () -> {
+                  start.await();
+                  try {
+                    return run(segments, segmentDone, store, ids, startNanos[0], speed);
+                  } catch (RuntimeException | Error e) {
+                    // releases the other workers from the barrier, including those yet to reach it
+                    segmentDone.forceTermination();
+                    throw e;
+                  }
+                }));
+      }
+      startNanos[0] = System.nanoTime();
+      start.countDown();
+
+      long[] all = new long[0];
+      Throwable failure = null;
+      for (Future<long[]> future : latencies) {
+        try {
+          long[] partition = future.get();
+          int length = all.length;
+          all = Arrays.copyOf(all, length + partition.length);
+          System.arraycopy(partition, 0, all, length, partition.length);
+        } catch (ExecutionException e) {
+          // the workers a failure releases from the barrier fail too, so report the failure itself
+          if (failure == null || failure instanceof BrokenBarrierException) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure != null) {
+        throw new IllegalStateException("replay failed", failure);
+      }
+      long elapsed = System.nanoTime() - startNanos[0];
+      return report(all, elapsed);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Replays a trace into this process's in-memory store, which starts empty, and prints the report
+   *
+   * @param args the trace file, then optionally the speed, the concurrency and "interned" to
+   *     replay into a store that interns geometry instead
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path trace = Paths.get(args[0]);
+    double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+    int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    boolean interned = args.length > 3 && args[3].equals("interned");
+    WidgetStore store =
+        interned ? WidgetStores.internedInMemoryStore() : WidgetStores.inMemoryStore();
+    System.out.println(replay(trace, store, speed, concurrency));
+  }
+
+  /**
+   * Adds a segment of steps, spread across the workers by widget id, or in turn for steps on no
+   * widget, or, if it must keep its recorded order, all given to the first worker
+   */
+  private static void addSegment(
+      List<List<List<Step>>> partitions, List<Step> steps, boolean ordered) {
+    if (steps.isEmpty()) {
+      return;
+    }
+    partitions.forEach(segments -> segments.add(new ArrayList<>()));
+    int next = 0;
+    for (Step step : steps) {
+      int partition;
+      if (ordered) {
+        partition = 0;
+      } else if (step.id == null) {
+        partition = next++ % partitions.size();
+      } else {
+        partition = Math.floorMod(step.id.hashCode(), partitions.size());
+      }
+      List<List<Step>> segments = partitions.get(partition);
+      segments.get(segments.size() - 1).add(step);
+    }
+  }
+
+  private static long[] run(
+      List<List<Step>> segments,
+      Phaser segmentDone,
+      WidgetStore store,
+      Map<String, String> ids,
+      long startNanos,
+      double speed)
+      throws BrokenBarrierException {
+    long[] latencies = new long[segments.stream().mapToInt(List::size).sum()];
+    int i = 0;
+    for (int segment = 0; segment < segments.size(); segment++) {
+      if (segment > 0 && segmentDone.arriveAndAwaitAdvance() < 0) {
+        throw new BrokenBarrierException();
+      }
+      for (Step step : segments.get(segment)) {
+        long begin;
+        if (speed > 0) {
+          begin = startNanos + (long) (step.offset / speed);
+          long wait;
+          while ((wait = begin - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+          }
+        } else {
+          begin = System.nanoTime();
+        }
+        step.apply(store, ids);
+        latencies[i++] = System.nanoTime() - begin;
+      }
+    }
+    return latencies;
+  }
+
+  private static ReplayReport report(long[] latencies, long elapsed) {
+    Arrays.sort(latencies);
+    return ReplayReport.builder()
+        .setOperations(latencies.length)
+        .setElapsed(Duration.ofNanos(elapsed))
+        .setP50(percentile(latencies, 0.5))
+        .setP90(percentile(latencies, 0.9))
+        .setP99(percentile(latencies, 0.99))
+        .setP999(percentile(latencies, 0.999))
+        .setMax(percentile(latencies, 1))
+        .build();
+  }
+
+  private static Duration percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return Duration.ZERO;
+    }
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return Duration.ofNanos(sorted[Math.max(0, index)]);
+  }
+
+  private static List<Step> read(Path trace) throws IOException {
+    List<Step> steps = new ArrayList<>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(trace), 1 << 16))) {
+      if (in.readInt() != TraceFormat.MAGIC || in.readInt() != TraceFormat.VERSION) {
+        throw new IOException("not a widget store trace");
+      }
+      while (true) {
+        byte code;
+        try {
+          code = in.readByte();
+        } catch (EOFException e) {
+          return steps;
+        }
+        steps.add(Step.read(Operation.fromCode(code), in));
+      }
+    }
+  }
+
+  /** A recorded operation, with its arguments decoded ahead of the replay */
+  private static final class Step {
+    private final Operation operation;
+    private final long offset;
+    private String id;
+    private Coordinates coordinates;
+    private Dimensions dimensions;
+    /** the Z-index, or the tolerance of a snap */
+    private int zIndex;
+
+    private Widget[] widgets;
+    private String[] selection;
+
+    private Step(Operation operation, long offset) {
+      this.operation = operation;
+      this.offset = offset;
+    }
+
+    private static Step read(Operation operation, DataInputStream in) throws IOException {
+      Step step = new Step(operation, in.readLong());
+      switch (operation) {
+        case LIST:
+        case ITERATE:
+        case CLEAR:
+        case OVERLAPS:
+        case UNDO:
+        case REDO:
+          break;
+        case CREATE:
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.dimensions = TraceFormat.readDimensions(in);
+          step.id = in.readUTF();
+          break;
+        case CREATE_AT:
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.dimensions = TraceFormat.readDimensions(in);
+          step.zIndex = in.readInt();
+          step.id = in.readUTF();
+          break;
+        case SNAP:
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.dimensions = TraceFormat.readDimensions(in);
+          step.zIndex = in.readInt();
+          break;
+        case SNAP_OF:
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.zIndex = in.readInt();
+          step.id = in.readUTF();
+          break;
+        case LOAD:
+          step.widgets = new Widget[in.readInt()];
+          for (int i = 0; i < step.widgets.length; i++) {
+            step.widgets[i] = TraceFormat.readWidget(in);
+          }
+          break;
+        case GET:
+        case REMOVE:
+        case OVERLAPS_OF:
+          step.id = in.readUTF();
+          break;
+        case MOVE:
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.id = in.readUTF();
+          break;
+        case RESIZE:
+          step.dimensions = TraceFormat.readDimensions(in);
+          step.id = in.readUTF();
+          break;
+        case REORDER:
+          step.zIndex = in.readInt();
+          step.id = in.readUTF();
+          break;
+        case UPDATE:
+          step.dimensions = TraceFormat.readDimensions(in);
+          step.coordinates = TraceFormat.readCoordinates(in);
+          step.zIndex = in.readInt();
+          step.id = in.readUTF();
+          break;
+        case BRING_TO_FRONT:
+        case SEND_TO_BACK:
+          step.selection = TraceFormat.readIds(in);
+          break;
+        case MOVE_ABOVE:
+        case MOVE_BELOW:
+          step.selection = TraceFormat.readIds(in);
+          step.id = in.readUTF();
+          break;
+        default:
+          throw new IllegalStateException("unhandled operation " + operation);
+      }
+      return step;
+    }
+
+    private void apply(WidgetStore store, Map<String, String> ids) {
+      switch (operation) {
+        case LIST:
+          store.list();
+          break;
+        case ITERATE:
+          store.forEachOrdered(widget -> {});
+          break;
+        case CREATE:
+          ids.put(id, store.create(coordinates, dimensions).getId());
+          break;
+        case CREATE_AT:
+          ids.put(id, store.create(coordinates, dimensions, zIndex).getId());
+          break;
+        case LOAD:
+          store.load(Stream.of(widgets));
+          break;
+        case GET:
+          store.get(liveId(ids));
+          break;
+        case MOVE:
+          store.update(coordinates, liveId(ids));
+          break;
+        case RESIZE:
+          store.update(dimensions, liveId(ids));
+          break;
+        case REORDER:
+          store.update(zIndex, liveId(ids));
+          break;
+        case UPDATE:
+          store.update(dimensions, coordinates, zIndex, liveId(ids));
+          break;
+        case REMOVE:
+          store.get(liveId(ids)).ifPresent(store::remove);
+          break;
+        case CLEAR:
+          store.clear();
+          break;
+        case OVERLAPS:
+          store.overlaps();
+          break;
+        case OVERLAPS_OF:
+          store.overlaps(liveId(ids));
+          break;
+        case SNAP:
+          store.snap(coordinates, dimensions, zIndex);
+          break;
+        case SNAP_OF:
+          store.snap(coordinates, zIndex, liveId(ids));
+          break;
+        case BRING_TO_FRONT:
+          store.bringToFront(liveSelection(ids));
+          break;
+        case SEND_TO_BACK:
+          store.sendToBack(liveSelection(ids));
+          break;
+        case MOVE_ABOVE:
+          store.moveAbove(liveSelection(ids), liveId(ids));
+          break;
+        case MOVE_BELOW:
+          store.moveBelow(liveSelection(ids), liveId(ids));
+          break;
+        case UNDO:
+          store.undo();
+          break;
+        case REDO:
+          store.redo();
+          break;
+        default:
+          throw new IllegalStateException("unhandled operation " + operation);
+      }
+    }
+
+    /** widgets loaded from a trace keep their recorded ids, created ones are mapped */
+    private String liveId(Map<String, String> ids) {
+      return ids.getOrDefault(id, id);
+    }
+
+    private List<String> liveSelection(Map<String, String> ids) {
+      List<String> live = new ArrayList<>(selection.length);
+      for (String selected : selection) {
+        live.add(ids.getOrDefault(selected, selected));
+      }
+      return live;
+    }
+  }
+
+  private TraceReplayer() {
+    throw new IllegalAccessError();
+  }
+}
@@ -0,0 +1,162 @@
+package org.mirowidgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.BoardStore;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class BoardStoreTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private BoardStore boardStore;
+
+  @Before
+  public void createStore() {
+    boardStore = WidgetStores.boardStore(temporaryFolder.getRoot().toPath(), 2, Duration.ofHours(1));
+  }
+
+  @After
+  public void closeStore() throws Exception {
+    boardStore.close();
+  }
+
+  @Test
+  public void idle_board_is_paged_out_and_faulted_back_in_on_access() throws Exception {
+    try (BoardStore idleStore =
+        WidgetStores.boardStore(temporaryFolder.getRoot().toPath(), 2, Duration.ZERO)) {
+      // given
+      WidgetStore board = idleStore.board("board-1");
+      for (int i = 0; i < 100; i++) {
+        board.create(
+            Coordinates.builder().setX(i).setY(i).build(),
+            Dimensions.builder().setHeight(1).setWidth(1).build(),
+            i);
+      }
+      List<Widget> widgets = board.list();
+
+      // when
+      Thread.sleep(1);
+      idleStore.evictIdle();
+
+      // then
+      assertThat(idleStore.residentBoards()).isZero();
+      assertThat(temporaryFolder.getRoot().toPath().resolve("board-1.widgets")).exists();
+      assertThat(board.list()).isEqualTo(widgets);
+    }
+  }
+
+  @Test
+  public void least_recently_used_board_is_paged_out_when_too_many_are_resident() {
+    // given
+    Widget widget =
+        boardStore
+            .board("first")
+            .create(
+                Coordinates.builder().setX(0).setY(0).build(),
+                Dimensions.builder().setHeight(1).setWidth(1).build());
+    boardStore.board("second").list();
+
+    // when
+    boardStore.board("third").list();
+
+    // then
+    assertThat(boardStore.residentBoards()).isEqualTo(2);
+    assertThat(temporaryFolder.getRoot().toPath().resolve("first.widgets")).exists();
+    assertThat(boardStore.board("first").get(widget.getId())).contains(widget);
+  }
+
+  @Test
+  public void board_that_cannot_be_paged_out_stays_resident_and_is_not_evicted_again()
+      throws Exception {
+    // given
+    Path directory = temporaryFolder.newFolder().toPath();
+    BoardStore smallStore = WidgetStores.boardStore(directory, 2, Duration.ofHours(1));
+    Widget widget = createWidget(smallStore.board("first"));
+    blockPageOut(directory, "first");
+    smallStore.board("second").list();
+
+    // when
+    List<Widget> third = smallStore.board("third").list();
+    smallStore.board("fourth").list();
+
+    // then
+    assertThat(third).isEmpty();
+    assertThat(directory.resolve("second.widgets")).exists();
+    assertThat(smallStore.residentBoards()).isEqualTo(3);
+    assertThat(smallStore.board("first").get(widget.getId())).contains(widget);
+    assertThatThrownBy(smallStore::close).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void closing_pages_out_every_board_even_when_one_cannot_be_written() throws Exception {
+    // given
+    Path directory = temporaryFolder.newFolder().toPath();
+    BoardStore closingStore = WidgetStores.boardStore(directory, 10, Duration.ofHours(1));
+    List<String> boardIds = List.of("a", "b", "c", "d", "e");
+    for (String boardId : boardIds) {
+      createWidget(closingStore.board(boardId));
+    }
+    blockPageOut(directory, "c");
+
+    // when
+    Throwable failure = catchThrowable(closingStore::close);
+
+    // then
+    assertThat(failure).isInstanceOf(IOException.class).hasMessageContaining("board c");
+    assertThat(failure.getSuppressed()).isEmpty();
+    for (String boardId : List.of("a", "b", "d", "e")) {
+      assertThat(directory.resolve(boardId + ".widgets")).exists();
+    }
+  }
+
+  @Test
+  public void board_whose_file_cannot_be_read_is_not_kept_resident() throws Exception {
+    // given
+    Files.write(temporaryFolder.getRoot().toPath().resolve("broken.widgets"), new byte[] {1, 2});
+    WidgetStore broken = boardStore.board("broken");
+
+    // when
+    Throwable failure = catchThrowable(broken::list);
+
+    // then
+    assertThat(failure).isInstanceOf(UncheckedIOException.class);
+    assertThat(boardStore.residentBoards()).isZero();
+    assertThat(boardStore.board("other").list()).isEmpty();
+  }
+
+  @Test
+  public void board_id_must_be_a_plain_file_name() {
+    assertThatIllegalArgumentException().isThrownBy(() -> boardStore.board("../escape"));
+  }
+
+  private static Widget createWidget(WidgetStore board) {
+    return board.create(
+        Coordinates.builder().setX(0).setY(0).build(),
+        Dimensions.builder().setHeight(1).setWidth(1).build());
+  }
+
+  /** Makes a board's file impossible to write, by putting a directory where it is first written */
+  private static void blockPageOut(Path directory, String boardId) throws IOException {
+    Files.createDirectories(directory.resolve(boardId + ".widgets.tmp").resolve("blocker"));
+  }
+}
@@ -0,0 +1,86 @@
+package org.mirowidgets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.MutationLog;
+import org.mirowidgets.store.ReplicaWidgetStore;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReplicaWidgetStoreTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void replica_catches_up_with_every_change_to_the_store_it_follows() throws Exception {
+    // given
+    WidgetStore store = WidgetStores.internedInMemoryStore();
+    Widget existing = createWidget(store, 1);
+
+    try (ReplicaWidgetStore replica = WidgetStores.replicaOf(store)) {
+      // when
+      List<Widget> widgets = edit(store, existing);
+
+      // then
+      assertThat(replica.awaitVersion(store.version(), TIMEOUT)).isTrue();
+      assertThat(replica.version()).isEqualTo(store.version());
+      assertThat(replica.list()).isEqualTo(widgets);
+      assertThat(replica.get(existing.getId())).isEqualTo(store.get(existing.getId()));
+      assertThatThrownBy(() -> replica.clear())
+          .isInstanceOf(UnsupportedOperationException.class);
+    }
+  }
+
+  @Test
+  public void replica_follows_a_store_through_its_mutation_log() throws Exception {
+    // given
+    WidgetStore store = WidgetStores.internedInMemoryStore();
+    Widget existing = createWidget(store, 1);
+    Path log = temporaryFolder.getRoot().toPath().resolve("board.log");
+    MutationLog mutationLog = WidgetStores.mutationLog(store, log);
+
+    try (mutationLog;
+        ReplicaWidgetStore replica = WidgetStores.replicaOf(log)) {
+      // when
+      List<Widget> widgets = edit(store, existing);
+
+      // then
+      assertThat(replica.awaitVersion(store.version(), TIMEOUT)).isTrue();
+      assertThat(replica.list()).isEqualTo(widgets);
+    }
+  }
+
+  /** Makes edits of every kind, returning the board they leave */
+  private static List<Widget> edit(WidgetStore store, Widget existing) {
+    createWidget(store, 1);
+    store.update(Coordinates.builder().setX(50).setY(60).build(), existing.getId());
+    store.undo();
+    store.redo();
+    Widget removed = createWidget(store, 3);
+    store.bringToFront(List.of(existing.getId()));
+    store.remove(removed);
+    store.load(store.list().stream());
+    createWidget(store, 2);
+    return store.list();
+  }
+
+  private static Widget createWidget(WidgetStore store, int zIndex) {
+    return store.create(
+        Coordinates.builder().setX(zIndex).setY(zIndex).build(),
+        Dimensions.builder().setHeight(10).setWidth(10).build(),
+        zIndex);
+  }
+}
@@ -0,0 +1,138 @@
+package org.mirowidgets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.ReplicaWidgetStore;
+import org.mirowidgets.store.WidgetStore;
+import org.mirowidgets.store.WidgetStores;
+import org.mirowidgets.trace.ReplayReport;
+import org.mirowidgets.trace.TraceRecorder;
+import org.mirowidgets.trace.TraceReplayer;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+public class TraceReplayerTest {
+
+  private static final WidgetStore WIDGET_STORE = WidgetStores.inMemoryStore();
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Before
+  public void clearStore() {
+    WIDGET_STORE.clear();
+  }
+
+  @Test
+  public void replaying_a_trace_reproduces_the_recorded_board() throws Exception {
+    // given
+    Path trace = temporaryFolder.newFile().toPath();
+    try (TraceRecorder recorder = new TraceRecorder(WIDGET_STORE, trace)) {
+      for (int i = 0; i < 100; i++) {
+        Widget widget =
+            recorder.create(
+                Coordinates.builder().setX(i).setY(i).build(),
+                Dimensions.builder().setHeight(1).setWidth(1).build(),
+                i % 10);
+        recorder.update(Coordinates.builder().setX(-i).setY(i).build(), widget.getId());
+        if (i % 3 == 0) {
+          recorder.get(widget.getId()).ifPresent(recorder::remove);
+        }
+      }
+      recorder.list();
+    }
+    List<Widget> recorded = WIDGET_STORE.list();
+    WIDGET_STORE.clear();
+
+    // when
+    ReplayReport report = TraceReplayer.replay(trace, WIDGET_STORE, 0, 4);
+
+    // then
+    assertThat(report.getOperations()).isEqualTo(100 + 100 + 34 + 34 + 1);
+    assertThat(report.getP50()).isLessThanOrEqualTo(report.getP99());
+    assertThat(report.getMax()).isGreaterThanOrEqualTo(report.getP999());
+    assertThat(WIDGET_STORE.list().stream().map(Widget::getCoordinates).collect(toList()))
+        .containsExactlyInAnyOrderElementsOf(
+            recorded.stream().map(Widget::getCoordinates).collect(toList()));
+  }
+
+  @Test
+  public void replaying_board_wide_steps_concurrently_keeps_them_in_recorded_order()
+      throws Exception {
+    // given
+    Path trace = temporaryFolder.newFile().toPath();
+    WidgetStore recordedStore = WidgetStores.internedInMemoryStore();
+    try (TraceRecorder recorder = new TraceRecorder(recordedStore, trace)) {
+      for (int i = 0; i < 50; i++) {
+        recorder.create(
+            Coordinates.builder().setX(i).setY(i).build(),
+            Dimensions.builder().setHeight(1).setWidth(1).build());
+      }
+      recorder.clear();
+      List<Widget> widgets =
+          IntStream.range(0, 40)
+              .mapToObj(
+                  i ->
+                      recorder.create(
+                          Coordinates.builder().setX(i).setY(-i).build(),
+                          Dimensions.builder().setHeight(2).setWidth(2).build()))
+              .collect(toList());
+      recorder.update(Coordinates.builder().setX(500).setY(500).build(), widgets.get(3).getId());
+      recorder.update(Coordinates.builder().setX(600).setY(600).build(), widgets.get(4).getId());
+      recorder.undo();
+      recorder.bringToFront(idsOf(widgets, 0, 1, 2));
+      recorder.sendToBack(idsOf(widgets, 30, 31));
+      recorder.moveAbove(idsOf(widgets, 5, 6), widgets.get(20).getId());
+      recorder.moveBelow(idsOf(widgets, 7), widgets.get(10).getId());
+      recorder.update(Coordinates.builder().setX(700).setY(700).build(), widgets.get(0).getId());
+    }
+    WidgetStore replayedStore = WidgetStores.internedInMemoryStore();
+
+    // when
+    TraceReplayer.replay(trace, replayedStore, 0, 4);
+
+    // then
+    assertThat(replayedStore.list().stream().map(Widget::getCoordinates).collect(toList()))
+        .containsExactlyElementsOf(
+            recordedStore.list().stream().map(Widget::getCoordinates).collect(toList()));
+    assertThat(replayedStore.list().stream().map(Widget::getZIndex).collect(toList()))
+        .containsExactlyElementsOf(
+            recordedStore.list().stream().map(Widget::getZIndex).collect(toList()));
+  }
+
+  @Test
+  public void replay_failure_reports_the_failing_operation_rather_than_the_broken_barrier()
+      throws Exception {
+    // given
+    Path trace = temporaryFolder.newFile().toPath();
+    try (TraceRecorder recorder = new TraceRecorder(WIDGET_STORE, trace)) {
+      for (int i = 0; i < 20; i++) {
+        recorder.list();
+      }
+      recorder.clear();
+      recorder.list();
+    }
+
+    // when
+    try (ReplicaWidgetStore replica = WidgetStores.replicaOf(WIDGET_STORE)) {
+      // then
+      assertThatIllegalStateException()
+          .isThrownBy(() -> TraceReplayer.replay(trace, replica, 0, 4))
+          .withCauseInstanceOf(UnsupportedOperationException.class);
+    }
+  }
+
+  private static List<String> idsOf(List<Widget> widgets, int... indexes) {
+    return IntStream.of(indexes).mapToObj(i -> widgets.get(i).getId()).collect(toList());
+  }
+}
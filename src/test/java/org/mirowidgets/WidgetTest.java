@@ -2,26 +2,47 @@ package org.mirowidgets;
 
 import de.huxhorn.sulky.ulid.ULID;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mirowidgets.model.Coordinates;
 import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Geometry;
+import org.mirowidgets.model.Overlap;
+import org.mirowidgets.model.Snap;
 import org.mirowidgets.model.Widget;
+import org.mirowidgets.store.WidgetFiles;
 import org.mirowidgets.store.WidgetStore;
 import org.mirowidgets.store.WidgetStores;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 
 public class WidgetTest {
 
   private static final WidgetStore WIDGET_STORE = WidgetStores.inMemoryStore();
 
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Before
   public void clearStore() {
     WIDGET_STORE.clear();
@@ -70,6 +91,25 @@ public class WidgetTest {
         .withMessage("height must be greater than zero");
   }
 
+  @Test
+  public void widget_id_must_be_a_ulid() {
+    // given
+    Widget.Builder widget =
+        Widget.builder()
+            .setCoordinates(Coordinates.builder().setX(0).setY(0).build())
+            .setDimensions(Dimensions.builder().setHeight(1).setWidth(1).build())
+            .setZIndex(0);
+    String ulid = new ULID().nextULID();
+
+    // then
+    assertThat(widget.setId(ulid).build().getId()).isEqualTo(ulid);
+    for (String id : List.of("not-a-ulid", ulid.toLowerCase(), "8" + ulid.substring(1))) {
+      assertThatExceptionOfType(IllegalStateException.class)
+          .isThrownBy(() -> widget.setId(id).build())
+          .withMessage("id must be a ULID");
+    }
+  }
+
   @Test
   public void new_widget_has_last_modified_date_automatically_generated() {
 
@@ -358,4 +398,499 @@ public class WidgetTest {
     assertThat(updatedWidget).isSameAs(widget);
     assertThat(WIDGET_STORE.list()).size().isEqualTo(1);
   }
+
+  @Test
+  public void concurrent_updates_and_removes_keep_every_widget_at_a_single_zIndex()
+      throws Exception {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+    List<String> ids =
+        IntStream.range(0, 50)
+            .mapToObj(
+                zIndex ->
+                    widgetStore
+                        .create(
+                            Coordinates.builder().setX(zIndex).setY(zIndex).build(),
+                            Dimensions.builder().setHeight(1).setWidth(1).build(),
+                            zIndex)
+                        .getId())
+            .collect(Collectors.toList());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    // when
+    List<Future<?>> futures =
+        IntStream.range(0, 8)
+            .mapToObj(
+                thread ->
+                    executor.submit(
+                        () -> {
+                          Random random = new Random(thread);
+                          for (int i = 0; i < 2_000; i++) {
+                            String id = ids.get(random.nextInt(ids.size()));
+                            switch (random.nextInt(4)) {
+                              case 0:
+                                widgetStore.update(random.nextInt(60), id);
+                                break;
+                              case 1:
+                                widgetStore.update(
+                                    Coordinates.builder().setX(i).setY(thread).build(), id);
+                                break;
+                              case 2:
+                                widgetStore.get(id).ifPresent(widgetStore::remove);
+                                break;
+                              default:
+                                widgetStore.update(
+                                    Dimensions.builder().setHeight(2).setWidth(i + 1).build(),
+                                    id);
+                            }
+                          }
+                        }))
+            .collect(Collectors.toList());
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    // then
+    List<Widget> widgets = widgetStore.list();
+    assertThat(widgets).extracting("zIndex").doesNotHaveDuplicates();
+    assertThat(widgets).extracting("id").doesNotHaveDuplicates();
+    for (Widget widget : widgets) {
+      assertThat(widgetStore.get(widget.getId())).contains(widget);
+    }
+    assertThat(ids.stream().filter(id -> widgetStore.get(id).isPresent()).count())
+        .isEqualTo(widgets.size());
+  }
+
+  @Test
+  public void loading_widgets_with_duplicate_zIndex_moves_them_to_the_next_free_zIndex() {
+    // given
+    Widget first =
+        Widget.builder()
+            .setCoordinates(Coordinates.builder().setX(0).setY(0).build())
+            .setDimensions(Dimensions.builder().setHeight(1).setWidth(1).build())
+            .setZIndex(5)
+            .build();
+    Widget second = first.withId(new ULID().nextULID());
+    Widget third = first.withId(new ULID().nextULID()).withZIndex(6);
+    Widget bottom = first.withId(new ULID().nextULID()).withZIndex(1);
+
+    // when
+    WIDGET_STORE.load(Stream.of(first, second, third, bottom).parallel());
+
+    // then
+    List<Widget> widgets = WIDGET_STORE.list();
+    assertThat(widgets).extracting("zIndex").containsExactly(1, 5, 6, 7);
+    assertThat(widgets)
+        .extracting("id")
+        .containsExactly(bottom.getId(), first.getId(), second.getId(), third.getId());
+    assertThat(WIDGET_STORE.get(second.getId()).map(Widget::getZIndex)).contains(6);
+  }
+
+  @Test
+  public void exported_board_is_imported_unchanged() throws Exception {
+    // given
+    for (int i = 0; i < 1_000; i++) {
+      WIDGET_STORE.create(
+          Coordinates.builder().setX(i).setY(-i).build(),
+          Dimensions.builder().setHeight(i + 1).setWidth(2 * i + 1).build(),
+          i % 100);
+    }
+    List<Widget> exported = WIDGET_STORE.list();
+    Path file = temporaryFolder.newFile().toPath();
+
+    // when
+    WidgetFiles.write(WIDGET_STORE, file);
+    WIDGET_STORE.clear();
+    WidgetFiles.read(file, WIDGET_STORE);
+
+    // then
+    assertThat(WIDGET_STORE.list()).isEqualTo(exported);
+    assertThat(WIDGET_STORE.get(exported.get(500).getId())).contains(exported.get(500));
+  }
+
+  @Test
+  public void failed_export_leaves_the_existing_file_untouched() throws Exception {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+    widgetStore.create(
+        Coordinates.builder().setX(0).setY(0).build(),
+        Dimensions.builder().setHeight(1).setWidth(1).build());
+    Path file = temporaryFolder.newFile().toPath();
+    WidgetFiles.write(widgetStore, file);
+    byte[] exported = Files.readAllBytes(file);
+    widgetStore.clear();
+    // a directory where the export is first written
+    Files.createDirectories(file.resolveSibling(file.getFileName() + ".tmp").resolve("blocker"));
+
+    // when
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> WidgetFiles.write(widgetStore, file));
+
+    // then
+    assertThat(Files.readAllBytes(file)).isEqualTo(exported);
+  }
+
+  @Test
+  public void file_shorter_than_its_header_is_not_a_widget_file() throws Exception {
+    // given
+    Path file = temporaryFolder.newFile().toPath();
+    Files.write(file, new byte[] {0x4D, 0x57, 0x42});
+
+    // then
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> WidgetFiles.read(file, WidgetStores.internedInMemoryStore()))
+        .withMessage("not a widget file");
+  }
+
+  @Test
+  public void overlapping_widgets_are_those_whose_rectangles_intersect() {
+    // given
+    Widget widget =
+        WIDGET_STORE.create(
+            Coordinates.builder().setX(0).setY(0).build(),
+            Dimensions.builder().setHeight(10).setWidth(10).build(),
+            1);
+    Widget inside =
+        WIDGET_STORE.create(
+            Coordinates.builder().setX(2).setY(2).build(),
+            Dimensions.builder().setHeight(2).setWidth(2).build(),
+            2);
+    WIDGET_STORE.create(
+        Coordinates.builder().setX(10).setY(0).build(),
+        Dimensions.builder().setHeight(10).setWidth(10).build(),
+        3);
+    Widget corner =
+        WIDGET_STORE.create(
+            Coordinates.builder().setX(-5).setY(9).build(),
+            Dimensions.builder().setHeight(5).setWidth(6).build(),
+            0);
+
+    // when
+    List<Overlap> overlaps = WIDGET_STORE.overlaps();
+
+    // then
+    assertThat(overlaps)
+        .containsExactlyInAnyOrder(
+            Overlap.builder().setFirst(widget).setSecond(inside).build(),
+            Overlap.builder().setFirst(corner).setSecond(widget).build());
+    assertThat(WIDGET_STORE.overlaps(widget.getId())).containsExactly(corner, inside);
+    assertThat(WIDGET_STORE.overlaps("unknown")).isEmpty();
+  }
+
+  @Test
+  public void overlapping_pairs_on_a_large_board_match_a_pairwise_check() {
+    // given
+    Random random = new Random(42);
+    WIDGET_STORE.load(
+        IntStream.range(0, 12_000)
+            .mapToObj(
+                i ->
+                    Widget.builder()
+                        .setCoordinates(
+                            Coordinates.builder()
+                                .setX(random.nextInt(20_000))
+                                .setY(random.nextInt(2_000))
+                                .build())
+                        .setDimensions(
+                            Dimensions.builder()
+                                .setHeight(1 + random.nextInt(40))
+                                .setWidth(1 + random.nextInt(400))
+                                .build())
+                        .setZIndex(i)
+                        .build()));
+    List<Widget> widgets = WIDGET_STORE.list();
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < widgets.size(); i++) {
+      Widget first = widgets.get(i);
+      for (int j = i + 1; j < widgets.size(); j++) {
+        Widget second = widgets.get(j);
+        if (first.getCoordinates().getX()
+                < second.getCoordinates().getX() + second.getDimensions().getWidth()
+            && second.getCoordinates().getX()
+                < first.getCoordinates().getX() + first.getDimensions().getWidth()
+            && first.getCoordinates().getY()
+                < second.getCoordinates().getY() + second.getDimensions().getHeight()
+            && second.getCoordinates().getY()
+                < first.getCoordinates().getY() + first.getDimensions().getHeight()) {
+          expected.add(first.getId() + second.getId());
+        }
+      }
+    }
+
+    // when
+    List<Overlap> overlaps = WIDGET_STORE.overlaps();
+
+    // then
+    assertThat(expected).isNotEmpty();
+    assertThat(
+            overlaps.stream()
+                .map(overlap -> overlap.getFirst().getId() + overlap.getSecond().getId())
+                .collect(Collectors.toSet()))
+        .isEqualTo(expected);
+    assertThat(overlaps).hasSameSizeAs(expected);
+  }
+
+  @Test
+  public void snapping_moves_a_widget_to_the_nearest_edge_within_tolerance() {
+    // given
+    WIDGET_STORE.create(
+        Coordinates.builder().setX(0).setY(0).build(),
+        Dimensions.builder().setHeight(50).setWidth(100).build(),
+        0);
+
+    // when
+    Snap snap =
+        WIDGET_STORE.snap(
+            Coordinates.builder().setX(103).setY(200).build(),
+            Dimensions.builder().setHeight(20).setWidth(20).build(),
+            5);
+
+    // then
+    assertThat(snap.getCoordinates()).isEqualTo(Coordinates.builder().setX(100).setY(200).build());
+    assertThat(snap.getGuideX()).hasValue(100);
+    assertThat(snap.getGuideY()).isEmpty();
+  }
+
+  @Test
+  public void snapping_a_dragged_widget_ignores_its_own_edges() {
+    // given
+    WIDGET_STORE.create(
+        Coordinates.builder().setX(0).setY(0).build(),
+        Dimensions.builder().setHeight(50).setWidth(100).build(),
+        0);
+    Widget dragged =
+        WIDGET_STORE.create(
+            Coordinates.builder().setX(300).setY(300).build(),
+            Dimensions.builder().setHeight(20).setWidth(20).build(),
+            1);
+    Coordinates position = Coordinates.builder().setX(103).setY(22).build();
+    WIDGET_STORE.update(position, dragged.getId());
+
+    // when
+    Optional<Snap> snap = WIDGET_STORE.snap(position, 5, dragged.getId());
+
+    // then
+    assertThat(snap).isPresent();
+    assertThat(snap.get().getCoordinates())
+        .isEqualTo(Coordinates.builder().setX(100).setY(25).build());
+    assertThat(snap.get().getGuideX()).hasValue(100);
+    assertThat(snap.get().getGuideY()).hasValue(25);
+    assertThat(WIDGET_STORE.snap(position, 5, "unknown")).isEmpty();
+  }
+
+  @Test
+  public void selection_brought_to_front_keeps_its_relative_order() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+
+    // when
+    List<Widget> moved =
+        WIDGET_STORE.bringToFront(List.of(widgets.get(3).getId(), widgets.get(1).getId()));
+
+    // then
+    assertThat(moved).extracting("zIndex").containsExactly(6, 7);
+    assertThat(WIDGET_STORE.list())
+        .extracting("id")
+        .containsExactly(idsOf(widgets, 0, 2, 4, 1, 3));
+  }
+
+  @Test
+  public void selection_sent_to_back_keeps_its_relative_order() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+
+    // when
+    List<Widget> moved =
+        WIDGET_STORE.sendToBack(List.of(widgets.get(3).getId(), widgets.get(1).getId()));
+
+    // then
+    assertThat(moved).extracting("zIndex").containsExactly(-1, 0);
+    assertThat(WIDGET_STORE.list())
+        .extracting("id")
+        .containsExactly(idsOf(widgets, 1, 3, 0, 2, 4));
+  }
+
+  @Test
+  public void selection_moved_above_a_widget_shifts_only_the_widgets_in_the_way() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+
+    // when
+    List<Widget> moved =
+        WIDGET_STORE.moveAbove(
+            List.of(widgets.get(4).getId(), widgets.get(0).getId()), widgets.get(2).getId());
+
+    // then
+    assertThat(moved).extracting("zIndex").containsExactly(4, 5);
+    assertThat(WIDGET_STORE.list()).extracting("zIndex").containsExactly(2, 3, 4, 5, 6);
+    assertThat(WIDGET_STORE.list())
+        .extracting("id")
+        .containsExactly(idsOf(widgets, 1, 2, 0, 4, 3));
+  }
+
+  @Test
+  public void selection_moved_below_a_widget_shifts_the_widget_up() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+
+    // when
+    List<Widget> moved =
+        WIDGET_STORE.moveBelow(List.of(widgets.get(4).getId()), widgets.get(1).getId());
+
+    // then
+    assertThat(moved).extracting("zIndex").containsExactly(2);
+    assertThat(WIDGET_STORE.list()).extracting("zIndex").containsExactly(1, 2, 3, 4, 5);
+    assertThat(WIDGET_STORE.list())
+        .extracting("id")
+        .containsExactly(idsOf(widgets, 0, 4, 1, 2, 3));
+    assertThatIllegalArgumentException()
+        .isThrownBy(
+            () ->
+                WIDGET_STORE.moveBelow(
+                    List.of(widgets.get(1).getId()), widgets.get(1).getId()));
+    assertThat(WIDGET_STORE.moveBelow(List.of(widgets.get(1).getId()), "unknown")).isEmpty();
+  }
+
+  @Test
+  public void interning_store_shares_equal_coordinates_and_dimensions_between_widgets() {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+
+    // when
+    Widget first =
+        widgetStore.create(
+            Coordinates.builder().setX(20).setY(40).build(),
+            Dimensions.builder().setHeight(100).setWidth(100).build());
+    Widget second =
+        widgetStore.create(
+            Coordinates.builder().setX(20).setY(40).build(),
+            Dimensions.builder().setHeight(100).setWidth(100).build());
+
+    // then
+    assertThat(second.getCoordinates()).isSameAs(first.getCoordinates());
+    assertThat(second.getDimensions()).isSameAs(first.getDimensions());
+    assertThat(Geometry.coordinates(20, 40)).isSameAs(first.getCoordinates());
+  }
+
+  @Test
+  public void undoing_a_zIndex_update_restores_the_widgets_it_shifted() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+    WIDGET_STORE.update(2, widgets.get(4).getId());
+
+    // when
+    boolean undone = WIDGET_STORE.undo();
+
+    // then
+    assertThat(undone).isTrue();
+    assertThat(WIDGET_STORE.list()).containsExactlyElementsOf(widgets);
+  }
+
+  @Test
+  public void redoing_an_undone_edit_reapplies_it_until_a_new_edit_is_made() {
+    // given
+    List<Widget> widgets = createStackOfFive();
+    Widget moved =
+        WIDGET_STORE.update(
+            Dimensions.builder().setHeight(5).setWidth(5).build(),
+            Coordinates.builder().setX(10).setY(10).build(),
+            1,
+            widgets.get(2).getId()).orElseThrow();
+    List<Widget> edited = WIDGET_STORE.list();
+    WIDGET_STORE.undo();
+
+    // when
+    boolean redone = WIDGET_STORE.redo();
+
+    // then
+    assertThat(redone).isTrue();
+    assertThat(WIDGET_STORE.list()).containsExactlyElementsOf(edited);
+    assertThat(WIDGET_STORE.get(moved.getId())).contains(moved);
+
+    // when
+    WIDGET_STORE.undo();
+    WIDGET_STORE.remove(widgets.get(0));
+
+    // then
+    assertThat(WIDGET_STORE.redo()).isFalse();
+    assertThat(WIDGET_STORE.undo()).isTrue();
+    assertThat(WIDGET_STORE.list()).containsExactlyElementsOf(widgets);
+  }
+
+  @Test
+  public void undoing_a_clear_restores_the_board_and_its_snap_edges() {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+    Dimensions dimensions = Dimensions.builder().setHeight(10).setWidth(10).build();
+    IntStream.range(0, 2_000)
+        .forEach(
+            i ->
+                widgetStore.create(Coordinates.builder().setX(i * 20).setY(0).build(), dimensions));
+    List<Widget> widgets = widgetStore.list();
+    widgetStore.clear();
+
+    // when
+    boolean undone = widgetStore.undo();
+
+    // then
+    assertThat(undone).isTrue();
+    assertThat(widgetStore.list()).containsExactlyElementsOf(widgets);
+    assertThat(
+            widgetStore
+                .snap(Coordinates.builder().setX(22).setY(1).build(), dimensions, 3)
+                .getCoordinates())
+        .isEqualTo(Coordinates.builder().setX(20).setY(0).build());
+  }
+
+  @Test
+  public void undoing_without_edits_does_nothing() {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+
+    // when
+    boolean undone = widgetStore.undo();
+
+    // then
+    assertThat(undone).isFalse();
+    assertThat(widgetStore.redo()).isFalse();
+    assertThat(widgetStore.list()).isEmpty();
+  }
+
+  @Test
+  public void estimated_retained_size_grows_with_the_board_and_its_history() {
+    // given
+    WidgetStore widgetStore = WidgetStores.internedInMemoryStore();
+    long empty = widgetStore.estimatedRetainedSize();
+    IntStream.range(0, 1_000)
+        .forEach(
+            i ->
+                widgetStore.create(
+                    Coordinates.builder().setX(i).setY(i).build(),
+                    Dimensions.builder().setHeight(10).setWidth(10).build()));
+
+    // when
+    long board = widgetStore.estimatedRetainedSize();
+    widgetStore.clear();
+    long history = widgetStore.estimatedRetainedSize();
+
+    // then
+    assertThat(board - empty).isBetween(1_000 * 250L, 1_000 * 500L);
+    assertThat(history).isGreaterThan(empty);
+  }
+
+  private static List<Widget> createStackOfFive() {
+    return IntStream.rangeClosed(1, 5)
+        .mapToObj(
+            zIndex ->
+                WIDGET_STORE.create(
+                    Coordinates.builder().setX(0).setY(0).build(),
+                    Dimensions.builder().setHeight(1).setWidth(1).build(),
+                    zIndex))
+        .collect(Collectors.toList());
+  }
+
+  private static Object[] idsOf(List<Widget> widgets, int... indexes) {
+    return IntStream.of(indexes).mapToObj(i -> widgets.get(i).getId()).toArray();
+  }
 }
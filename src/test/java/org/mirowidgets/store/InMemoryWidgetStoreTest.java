@@ -0,0 +1,142 @@
+package org.mirowidgets.store;
+
+import org.junit.Test;
+import org.mirowidgets.model.Change;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Widget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InMemoryWidgetStoreTest {
+
+  @Test
+  public void snapping_a_loaded_board_while_its_edge_index_is_built_matches_a_scan() {
+    // given
+    List<Runnable> builds = new ArrayList<>();
+    InMemoryWidgetStore widgetStore = new InMemoryWidgetStore(true, builds::add);
+    Random random = new Random(11);
+    widgetStore.load(
+        IntStream.range(0, 10_000)
+            .mapToObj(
+                zIndex ->
+                    Widget.builder()
+                        .setCoordinates(
+                            Coordinates.builder()
+                                .setX(random.nextInt(100_000))
+                                .setY(random.nextInt(100_000))
+                                .build())
+                        .setDimensions(
+                            Dimensions.builder()
+                                .setWidth(1 + random.nextInt(200))
+                                .setHeight(1 + random.nextInt(200))
+                                .build())
+                        .setZIndex(zIndex)
+                        .build()));
+    Dimensions dimensions = Dimensions.builder().setHeight(50).setWidth(50).build();
+    List<Coordinates> probes =
+        IntStream.range(0, 20)
+            .mapToObj(
+                i ->
+                    Coordinates.builder()
+                        .setX(random.nextInt(100_000))
+                        .setY(random.nextInt(100_000))
+                        .build())
+            .collect(Collectors.toList());
+    // never builds its edge index, so it always scans
+    InMemoryWidgetStore scanned = new InMemoryWidgetStore(true, build -> {});
+
+    // when
+    widgetStore.snap(probes.get(0), dimensions, 10);
+    widgetStore.list().stream()
+        .limit(100)
+        .forEach(
+            widget ->
+                widgetStore.update(
+                    Coordinates.builder()
+                        .setX(widget.getCoordinates().getX() + 7)
+                        .setY(widget.getCoordinates().getY() - 3)
+                        .build(),
+                    widget.getId()));
+    scanned.load(widgetStore.list().stream());
+
+    // then
+    for (Coordinates probe : probes) {
+      assertThat(widgetStore.snap(probe, dimensions, 10))
+          .isEqualTo(scanned.snap(probe, dimensions, 10));
+    }
+    assertThat(builds).hasSize(1);
+    long scanning = widgetStore.estimatedRetainedSize();
+    builds.get(0).run();
+    // the built index is in use, as the store now counts it
+    assertThat(widgetStore.estimatedRetainedSize()).isGreaterThan(scanning);
+    for (Coordinates probe : probes) {
+      assertThat(widgetStore.snap(probe, dimensions, 10))
+          .isEqualTo(scanned.snap(probe, dimensions, 10));
+    }
+    assertThat(builds).hasSize(1);
+  }
+
+  @Test
+  public void clearing_a_board_too_large_for_the_history_starts_a_new_history() {
+    // given
+    InMemoryWidgetStore widgetStore = new InMemoryWidgetStore();
+    Dimensions dimensions = Dimensions.builder().setHeight(1).setWidth(1).build();
+    widgetStore.load(
+        IntStream.range(0, 100_000)
+            .mapToObj(
+                zIndex ->
+                    Widget.builder()
+                        .setCoordinates(Coordinates.builder().setX(zIndex).setY(0).build())
+                        .setDimensions(dimensions)
+                        .setZIndex(zIndex)
+                        .build()));
+    widgetStore.create(Coordinates.builder().setX(0).setY(1).build(), dimensions);
+    List<Change> followed = new ArrayList<>();
+    widgetStore.follow(followed::add);
+    long version = widgetStore.version();
+
+    // when
+    widgetStore.clear();
+
+    // then
+    assertThat(widgetStore.list()).isEmpty();
+    assertThat(widgetStore.version()).isEqualTo(version + 1);
+    assertThat(widgetStore.undo()).isFalse();
+    assertThat(followed).hasSize(2);
+    assertThat(followed.get(1).isReset()).isTrue();
+    assertThat(followed.get(1).getMutation().getAdded()).isEmpty();
+  }
+
+  @Test
+  public void follower_whose_queue_fills_up_is_reset_to_the_current_board() {
+    // given
+    InMemoryWidgetStore widgetStore = new InMemoryWidgetStore();
+    Dimensions dimensions = Dimensions.builder().setHeight(1).setWidth(1).build();
+    widgetStore.create(Coordinates.builder().setX(0).setY(0).build(), dimensions);
+    BlockingQueue<Change> queue = new ArrayBlockingQueue<>(3);
+    widgetStore.follow(queue);
+
+    // when
+    for (int i = 1; i <= 4; i++) {
+      widgetStore.create(Coordinates.builder().setX(i).setY(0).build(), dimensions);
+    }
+
+    // then
+    List<Change> changes = new ArrayList<>(queue);
+    assertThat(changes).hasSize(2);
+    assertThat(changes.get(0).isReset()).isTrue();
+    assertThat(changes.get(1).getVersion()).isEqualTo(widgetStore.version());
+    InMemoryWidgetStore follower = new InMemoryWidgetStore();
+    follower.apply(changes);
+    assertThat(follower.list()).isEqualTo(widgetStore.list());
+  }
+}
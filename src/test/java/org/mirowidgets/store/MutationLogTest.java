@@ -0,0 +1,62 @@
+package org.mirowidgets.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mirowidgets.model.Change;
+import org.mirowidgets.model.Coordinates;
+import org.mirowidgets.model.Dimensions;
+import org.mirowidgets.model.Mutation;
+import org.mirowidgets.model.Widget;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MutationLogTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void replica_tailing_a_log_whose_writer_failed_fails_instead_of_waiting()
+      throws Exception {
+    // given
+    Path log = temporaryFolder.newFile().toPath();
+    Widget widget =
+        Widget.builder()
+            .setCoordinates(Coordinates.builder().setX(1).setY(2).build())
+            .setDimensions(Dimensions.builder().setHeight(3).setWidth(4).build())
+            .setZIndex(0)
+            .build();
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log))) {
+      out.writeInt(MutationLog.MAGIC);
+      out.writeInt(MutationLog.VERSION);
+      MutationLog.encode(
+          Change.builder()
+              .setVersion(3)
+              .setReset(true)
+              .setMutation(Mutation.builder().addAdded(widget).build())
+              .build(),
+          out);
+      MutationLog.encodeFailure(out);
+    }
+
+    // when
+    ReplicaWidgetStore replica = ReplicaWidgetStore.tailing(log);
+
+    // then
+    assertThatThrownBy(() -> replica.awaitVersion(4, TIMEOUT))
+        .isInstanceOf(UncheckedIOException.class);
+    assertThat(replica.version()).isEqualTo(3);
+    assertThat(replica.list()).containsExactly(widget);
+    assertThatThrownBy(replica::close).isInstanceOf(IOException.class);
+  }
+}
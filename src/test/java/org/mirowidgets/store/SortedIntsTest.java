@@ -0,0 +1,116 @@
+package org.mirowidgets.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+public class SortedIntsTest {
+
+  @Test
+  public void nearest_values_match_a_sorted_list_across_many_block_splits_and_removals() {
+    // given
+    Random random = new Random(5);
+    SortedInts sortedInts = new SortedInts();
+    List<Integer> expected = new ArrayList<>();
+    int[] initial = IntStream.range(0, 3_000).map(i -> random.nextInt(20_000)).toArray();
+    IntStream.of(initial).forEach(expected::add);
+    sortedInts.reset(initial);
+
+    // when
+    for (int i = 0; i < 20_000; i++) {
+      int value = random.nextInt(20_000);
+      // grows the board, splitting blocks, then shrinks it, emptying them
+      switch (i < 10_000 ? random.nextInt(3) : 1 + random.nextInt(2)) {
+        case 0:
+          sortedInts.add(value);
+          expected.add(value);
+          break;
+        case 1:
+          if (!expected.isEmpty()) {
+            Integer removed = expected.remove(random.nextInt(expected.size()));
+            sortedInts.remove(removed);
+          }
+          break;
+        default:
+          if (!expected.isEmpty()) {
+            int index = random.nextInt(expected.size());
+            sortedInts.replace(expected.get(index), value);
+            expected.set(index, value);
+          }
+      }
+    }
+
+    // then
+    Collections.sort(expected);
+    assertThat(sortedInts.size()).isEqualTo(expected.size());
+    for (int i = 0; i < 2_000; i++) {
+      int probe = random.nextInt(22_000) - 1_000;
+      int tolerance = random.nextInt(50);
+      assertThat(sortedInts.nearest(probe, tolerance, false, 0))
+          .isEqualTo(nearest(expected, probe, tolerance, null));
+      if (!expected.isEmpty()) {
+        int excluded = expected.get(random.nextInt(expected.size()));
+        assertThat(sortedInts.nearest(probe, tolerance, true, excluded))
+            .isEqualTo(nearest(expected, probe, tolerance, excluded));
+      }
+    }
+  }
+
+  @Test
+  public void footprint_shrinks_with_the_values_when_removals_are_spread_across_blocks() {
+    // given
+    SortedInts sortedInts = new SortedInts();
+    sortedInts.reset(IntStream.range(0, 100_000).toArray());
+    long full = sortedInts.bytes();
+
+    // when
+    for (int value = 0; value < 100_000; value++) {
+      if (value % 50 != 0) {
+        sortedInts.remove(value);
+      }
+    }
+
+    // then
+    assertThat(sortedInts.size()).isEqualTo(2_000);
+    // 2,000 values in blocks at least a quarter full of 1,024 take at most 8 blocks of 4 KiB
+    assertThat(sortedInts.bytes()).isLessThan(10 * 4_112).isLessThan(full / 8);
+    for (int value = 0; value < 100_000; value += 50) {
+      assertThat(sortedInts.nearest(value + 20, 20, false, 0)).isEqualTo(value);
+    }
+  }
+
+  @Test
+  public void removing_a_missing_value_fails() {
+    // given
+    SortedInts sortedInts = new SortedInts();
+    sortedInts.add(1);
+
+    // then
+    assertThatIllegalStateException().isThrownBy(() -> sortedInts.remove(2));
+  }
+
+  /** The nearest value by scanning, preferring the one above the probe on a tie */
+  private static long nearest(List<Integer> sorted, int probe, int tolerance, Integer excluded) {
+    List<Integer> values = new ArrayList<>(sorted);
+    if (excluded != null) {
+      values.remove(excluded);
+    }
+    long nearest = SortedInts.NONE;
+    long distance = (long) tolerance + 1;
+    for (int value : values) {
+      long candidate = Math.abs((long) value - probe);
+      if (candidate < distance || (candidate == distance && nearest != SortedInts.NONE)) {
+        nearest = value;
+        distance = candidate;
+      }
+    }
+    return nearest;
+  }
+}